@@ -0,0 +1,61 @@
+package ca.spottedleaf.starlight.benchmark;
+
+import ca.spottedleaf.starlight.knot.KnotFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class LightEngineBenchmark {
+
+    @Param({ "PLAINS", "CAVES", "TORCH_GRID", "GLASS_TOWER" })
+    public String workload;
+
+    @Param({ "SKY", "BLOCK" })
+    public String engine;
+
+    private Runnable lightChunk;
+    private Runnable relight;
+    private Runnable blockChange;
+
+    @Setup
+    public void setup() {
+        this.lightChunk = this.createFixture("LIGHT_CHUNK");
+        this.relight = this.createFixture("RELIGHT");
+        this.blockChange = this.createFixture("BLOCK_CHANGE");
+    }
+
+    private Runnable createFixture(final String operation) {
+        return (Runnable)KnotFixtures.invoke("ca.spottedleaf.starlight.benchmark.LightEngineFixture", "create", this.workload, this.engine, operation);
+    }
+
+    // lightChunk of a single chunk, with its neighbours already lit
+    @Benchmark
+    public void lightChunk() {
+        this.lightChunk.run();
+    }
+
+    // full relight of a single chunk, which re-lights the chunk and its 1 radius neighbours
+    @Benchmark
+    public void relight() {
+        this.relight.run();
+    }
+
+    // one increase and one decrease propagation, by toggling a single block
+    @Benchmark
+    public void blockChange() {
+        this.blockChange.run();
+    }
+}
@@ -0,0 +1,295 @@
+package ca.spottedleaf.starlight.benchmark;
+
+import ca.spottedleaf.starlight.common.light.BlockStarLightEngine;
+import ca.spottedleaf.starlight.common.light.SkyStarLightEngine;
+import ca.spottedleaf.starlight.common.light.StarLightEngine;
+import ca.spottedleaf.starlight.common.util.CoordinateUtils;
+import ca.spottedleaf.starlight.common.util.WorldUtil;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Holder;
+import net.minecraft.core.IdMapper;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.level.BlockGetter;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.EmptyBlockGetter;
+import net.minecraft.world.level.LevelHeightAccessor;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.ChunkStatus;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.LightChunk;
+import net.minecraft.world.level.chunk.LightChunkGetter;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.chunk.ProtoChunk;
+import net.minecraft.world.level.chunk.UpgradeData;
+import net.minecraft.world.ticks.ProtoChunkTicks;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Loaded through Knot, see KnotFixtures
+public final class LightEngineFixture implements LightChunkGetter {
+
+    private static final LevelHeightAccessor HEIGHT = new LevelHeightAccessor() {
+        @Override
+        public int getHeight() {
+            return 384;
+        }
+
+        @Override
+        public int getMinBuildHeight() {
+            return -64;
+        }
+    };
+
+    // chunks [-RADIUS, RADIUS] are generated, so that the center chunk has its full 2 radius available
+    private static final int RADIUS = 3;
+
+    private static final IdMapper<Holder<Biome>> BIOMES = new IdMapper<>();
+    // biomes are never read by the light engine
+    private static final Holder<Biome> BIOME = Holder.direct(null);
+    static {
+        BIOMES.add(BIOME);
+    }
+
+    private static boolean bootstrapped;
+
+    private static synchronized void bootstrap() {
+        if (bootstrapped) {
+            return;
+        }
+        bootstrapped = true;
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+
+    private final Long2ObjectOpenHashMap<ChunkAccess> chunks = new Long2ObjectOpenHashMap<>();
+
+    private LightEngineFixture() {}
+
+    @Override
+    public LightChunk getChunkForLighting(final int chunkX, final int chunkZ) {
+        return this.chunks.get(CoordinateUtils.getChunkKey(chunkX, chunkZ));
+    }
+
+    @Override
+    public BlockGetter getLevel() {
+        return EmptyBlockGetter.INSTANCE;
+    }
+
+    private ChunkAccess getChunk(final int blockX, final int blockZ) {
+        return this.chunks.get(CoordinateUtils.getChunkKey(blockX >> 4, blockZ >> 4));
+    }
+
+    private LevelChunkSection getSection(final int blockX, final int blockY, final int blockZ) {
+        return this.getChunk(blockX, blockZ).getSections()[(blockY >> 4) - WorldUtil.getMinSection(HEIGHT)];
+    }
+
+    private BlockState getBlockState(final int blockX, final int blockY, final int blockZ) {
+        return this.getSection(blockX, blockY, blockZ).getBlockState(blockX & 15, blockY & 15, blockZ & 15);
+    }
+
+    private void setBlockState(final int blockX, final int blockY, final int blockZ, final BlockState state) {
+        this.getSection(blockX, blockY, blockZ).setBlockState(blockX & 15, blockY & 15, blockZ & 15, state, false);
+    }
+
+    private void fill(final int fromX, final int fromY, final int fromZ, final int toX, final int toY, final int toZ,
+                      final BlockState state) {
+        for (int y = fromY; y <= toY; ++y) {
+            for (int z = fromZ; z <= toZ; ++z) {
+                for (int x = fromX; x <= toX; ++x) {
+                    this.setBlockState(x, y, z, state);
+                }
+            }
+        }
+    }
+
+    private static ProtoChunk createChunk(final int chunkX, final int chunkZ) {
+        final LevelChunkSection[] sections = new LevelChunkSection[WorldUtil.getTotalSections(HEIGHT)];
+        for (int i = 0; i < sections.length; ++i) {
+            sections[i] = new LevelChunkSection(
+                    new PalettedContainer<>(Block.BLOCK_STATE_REGISTRY, Blocks.AIR.defaultBlockState(), PalettedContainer.Strategy.SECTION_STATES),
+                    new PalettedContainer<>(BIOMES, BIOME, PalettedContainer.Strategy.SECTION_BIOMES)
+            );
+        }
+
+        final ProtoChunk ret = new ProtoChunk(
+                new ChunkPos(chunkX, chunkZ), UpgradeData.EMPTY, sections, new ProtoChunkTicks<>(), new ProtoChunkTicks<>(),
+                HEIGHT, null, null
+        );
+        ret.setStatus(ChunkStatus.LIGHT);
+        ret.setLightCorrect(true);
+
+        return ret;
+    }
+
+    private static final int MIN_X = -RADIUS * 16;
+    private static final int MAX_X = RADIUS * 16 + 15;
+    private static final int MIN_Z = -RADIUS * 16;
+    private static final int MAX_Z = RADIUS * 16 + 15;
+    private static final int SURFACE_Y = 63;
+
+    private void generatePlains() {
+        this.fill(MIN_X, -64, MIN_Z, MAX_X, SURFACE_Y - 4, MAX_Z, Blocks.STONE.defaultBlockState());
+        this.fill(MIN_X, SURFACE_Y - 3, MIN_Z, MAX_X, SURFACE_Y - 1, MAX_Z, Blocks.DIRT.defaultBlockState());
+        this.fill(MIN_X, SURFACE_Y, MIN_Z, MAX_X, SURFACE_Y, MAX_Z, Blocks.GRASS_BLOCK.defaultBlockState());
+    }
+
+    private void generateCaves() {
+        this.generatePlains();
+        // grid of 3x3 tunnels on two levels, connected to the sky by a shaft in the center chunk
+        for (final int y : new int[] { -40, 0 }) {
+            for (int i = MIN_X + 4; i <= MAX_X - 4; i += 8) {
+                this.fill(i - 1, y, MIN_Z, i + 1, y + 2, MAX_Z, Blocks.CAVE_AIR.defaultBlockState());
+                this.fill(MIN_X, y, i - 1, MAX_X, y + 2, i + 1, Blocks.CAVE_AIR.defaultBlockState());
+            }
+        }
+        this.fill(3, -40, 3, 5, SURFACE_Y - 1, 5, Blocks.CAVE_AIR.defaultBlockState());
+    }
+
+    private void generateTorchGrid() {
+        this.generatePlains();
+        // torches every 3 blocks on the surface, and glowstone every 6 blocks in the air above
+        for (int z = MIN_Z; z <= MAX_Z; z += 3) {
+            for (int x = MIN_X; x <= MAX_X; x += 3) {
+                this.setBlockState(x, SURFACE_Y + 1, z, Blocks.TORCH.defaultBlockState());
+            }
+        }
+        for (int y = SURFACE_Y + 8; y <= SURFACE_Y + 32; y += 6) {
+            for (int z = MIN_Z; z <= MAX_Z; z += 6) {
+                for (int x = MIN_X; x <= MAX_X; x += 6) {
+                    this.setBlockState(x, y, z, Blocks.GLOWSTONE.defaultBlockState());
+                }
+            }
+        }
+    }
+
+    private void generateGlassTower() {
+        this.generatePlains();
+        // hollow 12x12 glass tower with glass floors every 8 blocks, lit by sea lanterns on every floor
+        this.fill(2, SURFACE_Y + 1, 2, 13, 250, 13, Blocks.GLASS.defaultBlockState());
+        for (int y = SURFACE_Y + 1; y <= 250; y += 8) {
+            this.fill(3, y + 1, 3, 12, Math.min(250, y + 7), 12, Blocks.AIR.defaultBlockState());
+            this.setBlockState(7, y + 1, 7, Blocks.SEA_LANTERN.defaultBlockState());
+        }
+    }
+
+    public static Runnable create(final String workload, final String engineType, final String operation) {
+        bootstrap();
+
+        final LightEngineFixture fixture = new LightEngineFixture();
+        final Set<ChunkPos> allChunks = new LinkedHashSet<>();
+        for (int chunkZ = -RADIUS; chunkZ <= RADIUS; ++chunkZ) {
+            for (int chunkX = -RADIUS; chunkX <= RADIUS; ++chunkX) {
+                fixture.chunks.put(CoordinateUtils.getChunkKey(chunkX, chunkZ), createChunk(chunkX, chunkZ));
+                allChunks.add(new ChunkPos(chunkX, chunkZ));
+            }
+        }
+
+        // the block toggled by the block change operation, and the state it is toggled to
+        final BlockPos skyChange;
+        final BlockPos blockChange;
+        final BlockState blockChangeState;
+
+        switch (workload) {
+            case "PLAINS": {
+                fixture.generatePlains();
+                // shadow over the surface
+                skyChange = new BlockPos(8, SURFACE_Y + 40, 8);
+                blockChange = new BlockPos(8, SURFACE_Y + 1, 8);
+                blockChangeState = Blocks.TORCH.defaultBlockState();
+                break;
+            }
+            case "CAVES": {
+                fixture.generateCaves();
+                // opens/closes the shaft into the tunnels
+                skyChange = new BlockPos(4, SURFACE_Y, 4);
+                blockChange = new BlockPos(4, 0, 4);
+                blockChangeState = Blocks.TORCH.defaultBlockState();
+                break;
+            }
+            case "TORCH_GRID": {
+                fixture.generateTorchGrid();
+                skyChange = new BlockPos(8, SURFACE_Y + 40, 8);
+                // removes/adds a torch of the grid
+                blockChange = new BlockPos(9, SURFACE_Y + 1, 9);
+                blockChangeState = Blocks.AIR.defaultBlockState();
+                break;
+            }
+            case "GLASS_TOWER": {
+                fixture.generateGlassTower();
+                // shadow through all floors of the tower
+                skyChange = new BlockPos(7, 251, 7);
+                // removes/adds one of the sea lanterns
+                blockChange = new BlockPos(7, SURFACE_Y + 2, 7);
+                blockChangeState = Blocks.AIR.defaultBlockState();
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException("Unknown workload: " + workload);
+            }
+        }
+
+        final StarLightEngine engine;
+        final BlockPos changePos;
+        final BlockState changeState;
+        switch (engineType) {
+            case "SKY": {
+                engine = new SkyStarLightEngine(HEIGHT, false);
+                changePos = skyChange;
+                changeState = fixture.getBlockState(skyChange.getX(), skyChange.getY(), skyChange.getZ()).isAir() ?
+                        Blocks.STONE.defaultBlockState() : Blocks.AIR.defaultBlockState();
+                break;
+            }
+            case "BLOCK": {
+                engine = new BlockStarLightEngine(HEIGHT, false);
+                changePos = blockChange;
+                changeState = blockChangeState;
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException("Unknown engine: " + engineType);
+            }
+        }
+
+        // initial light, so that every operation starts from correctly lit chunks
+        engine.relightChunks(fixture, allChunks, null, null);
+
+        final ChunkAccess center = fixture.getChunk(0, 0);
+        switch (operation) {
+            case "LIGHT_CHUNK": {
+                return () -> {
+                    engine.light(fixture, center, StarLightEngine.getEmptySectionsForChunk(center));
+                };
+            }
+            case "RELIGHT": {
+                final Set<ChunkPos> relight = Set.of(center.getPos());
+                return () -> {
+                    engine.relightChunks(fixture, relight, null, null);
+                };
+            }
+            case "BLOCK_CHANGE": {
+                final BlockState originalState = fixture.getBlockState(changePos.getX(), changePos.getY(), changePos.getZ());
+                final LongOpenHashSet positions = new LongOpenHashSet();
+                positions.add(CoordinateUtils.getBlockKey(changePos));
+                final int chunkX = changePos.getX() >> 4;
+                final int chunkZ = changePos.getZ() >> 4;
+                return () -> {
+                    // the change is undone so that every invocation does the same amount of work
+                    fixture.setBlockState(changePos.getX(), changePos.getY(), changePos.getZ(), changeState);
+                    engine.blocksChangedInChunk(fixture, chunkX, chunkZ, positions, null);
+                    fixture.setBlockState(changePos.getX(), changePos.getY(), changePos.getZ(), originalState);
+                    engine.blocksChangedInChunk(fixture, chunkX, chunkZ, positions, null);
+                };
+            }
+            default: {
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package ca.spottedleaf.starlight.knot;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.launch.knot.Knot;
+import java.lang.reflect.InvocationTargetException;
+
+// The benchmarks and tests are loaded by the app class loader, where neither the access widener nor the mixins are
+// applied. So, the fixtures which need the light engines are loaded through Knot and only JDK types are exchanged
+// with them. Shared by the jmh and test source sets.
+public final class KnotFixtures {
+
+    private static ClassLoader knotClassLoader;
+
+    private static synchronized ClassLoader getKnotClassLoader() {
+        if (knotClassLoader == null) {
+            knotClassLoader = new Knot(EnvType.SERVER).init(new String[0]);
+        }
+        return knotClassLoader;
+    }
+
+    // invokes the public static method of the fixture class with the given name, loaded through Knot
+    public static Object invoke(final String fixtureClass, final String method, final Object... parameters) {
+        final Class<?>[] types = new Class<?>[parameters.length];
+        for (int i = 0; i < parameters.length; ++i) {
+            types[i] = parameters[i].getClass();
+        }
+
+        try {
+            return Class.forName(fixtureClass, true, getKnotClassLoader()).getMethod(method, types).invoke(null, parameters);
+        } catch (final InvocationTargetException ex) {
+            throw new RuntimeException("Failed to invoke fixture " + fixtureClass + "#" + method, ex.getCause());
+        } catch (final ReflectiveOperationException ex) {
+            throw new RuntimeException("Failed to invoke fixture " + fixtureClass + "#" + method, ex);
+        }
+    }
+
+    private KnotFixtures() {
+        throw new RuntimeException();
+    }
+}
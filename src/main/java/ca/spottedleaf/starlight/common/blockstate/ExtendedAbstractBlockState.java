@@ -6,4 +6,11 @@ public interface ExtendedAbstractBlockState {
 
     public int getOpacityIfCached();
 
+    // see LightProperties
+    public int getLightProperties();
+
+    // ids from FaceOcclusionCache by Direction ordinal, null unless the state is conditionally full opaque
+    // and its faces do not depend on the world position
+    public int[] getLightFaceIds();
+
 }
@@ -0,0 +1,103 @@
+package ca.spottedleaf.starlight.common.blockstate;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.shapes.Shapes;
+import net.minecraft.world.phys.shapes.VoxelShape;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class FaceOcclusionCache {
+
+    // Every state gets its own face shape objects, even when many states (or blocks) have the same shape, so faces are
+    // given ids by their boxes instead of their identity. This keeps the ids to the number of distinct faces, which
+    // also means that re-running initCache (i.e on reloads) does not add new ids. The result of
+    // Shapes#faceShapeOccludes is memoized for every pair of ids below MAX_TABLE_FACES, pairs with a larger id are
+    // computed on every call so that packs with many distinct shapes do not make the table huge.
+
+    public static final int EMPTY_FACE_ID = 0;
+
+    // the table uses at most MAX_TABLE_FACES^2 bytes
+    private static final int MAX_TABLE_FACES = 1024;
+
+    private static final Object2IntOpenHashMap<List<AABB>> FACE_IDS = new Object2IntOpenHashMap<>();
+    private static final List<VoxelShape> FACES = new ArrayList<>();
+    static {
+        FACE_IDS.defaultReturnValue(-1);
+        FACE_IDS.put(Shapes.empty().toAabbs(), EMPTY_FACE_ID);
+        FACES.add(Shapes.empty());
+    }
+
+    private static volatile int faceCount = 1;
+    private static volatile Table table = new Table(new VoxelShape[] { Shapes.empty() });
+
+    private static final class Table {
+
+        public final VoxelShape[] faces;
+        // number of faces whose results are memoized
+        public final int dimension;
+        // 0 = not computed, 1 = does not occlude, 2 = occludes
+        // races are benign, as every thread computes the same value
+        public final byte[] occludes;
+
+        public Table(final VoxelShape[] faces) {
+            this.faces = faces;
+            this.dimension = Math.min(faces.length, MAX_TABLE_FACES);
+            this.occludes = new byte[this.dimension * this.dimension];
+        }
+    }
+
+    // called from BlockState#initCache, only for faces that do not depend on the world position
+    public static synchronized int getFaceId(final VoxelShape face) {
+        if (face.isEmpty()) {
+            return EMPTY_FACE_ID;
+        }
+        final List<AABB> boxes = face.toAabbs();
+        final int existing = FACE_IDS.getInt(boxes);
+        if (existing != -1) {
+            return existing;
+        }
+
+        final int ret = FACES.size();
+        FACE_IDS.put(boxes, ret);
+        FACES.add(face);
+        faceCount = ret + 1;
+        return ret;
+    }
+
+    private static synchronized Table rebuildTable() {
+        Table ret = table;
+        if (ret.faces.length == faceCount) {
+            return ret;
+        }
+        return table = new Table(FACES.toArray(new VoxelShape[0]));
+    }
+
+    public static boolean occludes(final int fromFaceId, final int toFaceId) {
+        Table table = FaceOcclusionCache.table;
+        if (table.faces.length != faceCount) {
+            // faces were added since the last table was made, only happens after bootstrap and when new shapes are
+            // registered
+            table = rebuildTable();
+        }
+
+        final int dimension = table.dimension;
+        if (fromFaceId >= dimension || toFaceId >= dimension) {
+            return Shapes.faceShapeOccludes(table.faces[fromFaceId], table.faces[toFaceId]);
+        }
+
+        final int index = fromFaceId * dimension + toFaceId;
+        final byte cached = table.occludes[index];
+        if (cached != 0) {
+            return cached == 2;
+        }
+
+        final boolean ret = Shapes.faceShapeOccludes(table.faces[fromFaceId], table.faces[toFaceId]);
+        table.occludes[index] = ret ? (byte)2 : (byte)1;
+        return ret;
+    }
+
+    private FaceOcclusionCache() {
+        throw new RuntimeException();
+    }
+}
@@ -0,0 +1,90 @@
+package ca.spottedleaf.starlight.common.blockstate;
+
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.GlobalPalette;
+import net.minecraft.world.level.chunk.Palette;
+import java.util.Arrays;
+
+public final class LightProperties {
+
+    // Light properties of a BlockState packed into a single int:
+    // lower 4 bits: opacity (only valid when DYNAMIC_SHAPE is not set)
+    // next 4 bits: emitted light
+    // next bit: conditionally full opaque, i.e the faces of the block must be checked to propagate
+    // next bit: opacity and faces depend on the world position, and must be retrieved from the state
+    // next 6 bits: whether the face for the Direction (by ordinal) is a full block face, only set when
+    //              conditionally full opaque and not dynamic
+
+    public static final int OPACITY_MASK = 0xF;
+    public static final int EMISSION_SHIFT = 4;
+    public static final int EMISSION_MASK = 0xF << EMISSION_SHIFT;
+    public static final int CONDITIONALLY_FULL_OPAQUE = 1 << 8;
+    public static final int DYNAMIC_SHAPE = 1 << 9;
+    public static final int FULL_FACE_SHIFT = 10;
+
+    // when none of these are set, the opacity can be used directly and no faces need to be checked
+    public static final int UNCACHED_MASK = CONDITIONALLY_FULL_OPAQUE | DYNAMIC_SHAPE;
+
+    // indexed by Block.BLOCK_STATE_REGISTRY id, which is also the id used by the global palette of block states
+    private static volatile int[] propertiesById = new int[0];
+
+    public static int getFullFaceFlag(final Direction direction) {
+        return 1 << (FULL_FACE_SHIFT + direction.ordinal());
+    }
+
+    public static int pack(final int opacity, final int emission, final boolean conditionallyFullOpaque,
+                           final boolean dynamicShape, final int fullFaces) {
+        return (opacity & OPACITY_MASK)
+                | ((emission & 0xF) << EMISSION_SHIFT)
+                | (conditionallyFullOpaque ? CONDITIONALLY_FULL_OPAQUE : 0)
+                | (dynamicShape ? DYNAMIC_SHAPE : 0)
+                | ((fullFaces & 63) << FULL_FACE_SHIFT);
+    }
+
+    public static int getOpacity(final int properties) {
+        return properties & OPACITY_MASK;
+    }
+
+    public static int getEmission(final int properties) {
+        return (properties & EMISSION_MASK) >>> EMISSION_SHIFT;
+    }
+
+    // returns 0 for unknown ids
+    public static int getById(final int id) {
+        final int[] properties = propertiesById;
+        return id >= 0 && id < properties.length ? properties[id] : 0;
+    }
+
+    // called from BlockState#initCache, which may be re-run on tag reload
+    public static synchronized void setById(final int id, final int properties) {
+        int[] table = propertiesById;
+        if (id >= table.length) {
+            table = Arrays.copyOf(table, Math.max(id + 1, table.length * 2));
+        }
+        table[id] = properties;
+        propertiesById = table;
+    }
+
+    /**
+     * Returns the properties of every entry of the palette, indexed by palette id. The global palette uses registry ids,
+     * so the table itself is returned for it and must not be modified. Entries may be added to the palette afterwards,
+     * so callers must check the palette id against the length of the returned array.
+     */
+    public static int[] getPaletteProperties(final Palette<BlockState> palette) {
+        if (palette instanceof GlobalPalette) {
+            return propertiesById;
+        }
+        final int size = palette.getSize();
+        final int[] ret = new int[size];
+        for (int i = 0; i < size; ++i) {
+            ret[i] = getById(Block.BLOCK_STATE_REGISTRY.getId(palette.valueFor(i)));
+        }
+        return ret;
+    }
+
+    private LightProperties() {
+        throw new RuntimeException();
+    }
+}
@@ -15,4 +15,8 @@ public interface ExtendedChunk {
 
     public boolean[] getBlockEmptinessMap();
     public void setBlockEmptinessMap(final boolean[] emptinessMap);
+
+    // fingerprints read from the save data, see EdgeFingerprints. null if there are none or they were already used
+    public long[] getEdgeFingerprints();
+    public void setEdgeFingerprints(final long[] fingerprints);
 }
@@ -0,0 +1,12 @@
+package ca.spottedleaf.starlight.common.chunk;
+
+public interface ExtendedChunkSection {
+
+    // bitset of the blocks in this section which emit light, where the bit index is x | (z << 4) | (y << 8)
+    // maintained on block set, so it is only valid for the thread(s) which are allowed to read the section states.
+    // null if the section has no light sources
+    public long[] getLightSourceBitset();
+
+    public int getLightSourceCount();
+
+}
@@ -0,0 +1,74 @@
+package ca.spottedleaf.starlight.common.command;
+
+import ca.spottedleaf.starlight.common.light.LightExecutor;
+import ca.spottedleaf.starlight.common.light.LightMemoryStats;
+import ca.spottedleaf.starlight.common.light.LightMetrics;
+import ca.spottedleaf.starlight.common.light.StarLightLightingProvider;
+import com.mojang.brigadier.Command;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
+
+public final class StarlightCommand {
+
+    public static void register(final CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(
+                Commands.literal("starlight")
+                        .requires((final CommandSourceStack source) -> source.hasPermission(2))
+                        .then(Commands.literal("memory").executes(StarlightCommand::memory))
+                        .then(Commands.literal("metrics").executes(StarlightCommand::metrics))
+                        .then(Commands.literal("executor").executes(StarlightCommand::executor))
+        );
+    }
+
+    private static int memory(final CommandContext<CommandSourceStack> context) {
+        final CommandSourceStack source = context.getSource();
+        // the pool counter is global, so it is the same for every world
+        for (final ServerLevel world : source.getServer().getAllLevels()) {
+            final LightMemoryStats stats = LightMemoryStats.collect(world);
+            source.sendSuccess(() -> {
+                return Component.literal(world.dimension().location() + ": " + stats);
+            }, false);
+        }
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int metrics(final CommandContext<CommandSourceStack> context) {
+        final CommandSourceStack source = context.getSource();
+        for (final ServerLevel world : source.getServer().getAllLevels()) {
+            final LightMetrics metrics = ((StarLightLightingProvider)world.getChunkSource().getLightEngine()).getLightEngine().getMetrics();
+            final LightMetrics.Snapshot interval = metrics.getLastInterval();
+            source.sendSuccess(() -> {
+                return Component.literal(world.dimension().location() + ": "
+                        + (interval == null ? "no interval completed yet, queue " + metrics.snapshot().queueSize : interval.toString()));
+            }, false);
+        }
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int executor(final CommandContext<CommandSourceStack> context) {
+        final CommandSourceStack source = context.getSource();
+        final LightExecutor executor = LightExecutor.getInstance();
+        if (executor == null) {
+            source.sendSuccess(() -> {
+                return Component.literal("Light executor is disabled, light runs on the background executor");
+            }, false);
+            return Command.SINGLE_SUCCESS;
+        }
+
+        // sampling starts a new window, so the average is over the time since the previous use of this command
+        final double busyWorkers = executor.sampleBusyWorkers();
+        source.sendSuccess(() -> {
+            return Component.literal("Light executor: " + executor + ", " + String.format("%.2f", busyWorkers) + " busy on average"
+                    + (executor.workers == 0 ? "" : " (" + String.format("%.1f", 100.0 * busyWorkers / (double)executor.workers) + "%)"));
+        }, false);
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private StarlightCommand() {
+        throw new RuntimeException();
+    }
+}
@@ -0,0 +1,73 @@
+package ca.spottedleaf.starlight.common.config;
+
+public final class StarlightConfig {
+
+    // all options are read once from system properties, i.e -Dstarlight.parallel-propagation-threads=4
+
+    // number of threads used to drain the light queue and relight chunks in parallel on the server, values <= 1 keep
+    // the serial drain and relight
+    public static final int PARALLEL_PROPAGATION_THREADS = Integer.getInteger("starlight.parallel-propagation-threads", 0);
+
+    // whether the server runs queued light tasks closest to a player first, instead of in the order they were queued
+    public static final boolean PRIORITY_SCHEDULING = Boolean.getBoolean("starlight.priority-scheduling");
+
+    // distance in chunks added to the priority of tasks which only light new chunks or check chunk edges, so that block
+    // changes closer than this to a player always run before generation lighting
+    public static final int PRIORITY_GENERATION_PENALTY = Integer.getInteger("starlight.priority-generation-penalty", 8);
+    // time a queued task has to wait for its priority to improve by one chunk of distance, so that far away tasks and
+    // generation lighting cannot be starved by tasks which keep being queued closer to players. a task waits at most
+    // this times its priority behind newer tasks. values <= 0 disable aging
+    public static final long PRIORITY_AGING_MILLIS = Long.getLong("starlight.priority-aging-millis", 1000L).longValue();
+
+    // maximum time and number of chunk tasks a single light update may run for before leaving the rest of the queue
+    // for the next update, values <= 0 remove the limit. the propagation of block changes is paused when the time runs
+    // out and resumed by the next update, so huge block changes are spread over several updates. chunk lighting and
+    // edge checks are never paused. only the serial drain pauses, the parallel drain checks the limits between batches
+    public static final long PROPAGATION_BUDGET_NANOS = Long.getLong("starlight.propagation-budget-nanos", 0L).longValue();
+    public static final int PROPAGATION_BUDGET_TASKS = Integer.getInteger("starlight.propagation-budget-tasks", 0);
+
+    // dimension directory (the one containing the region folder) to relight offline when the dedicated server
+    // starts, after which the server exits. see OfflineRelighter
+    public static final String OFFLINE_RELIGHT_DIRECTORY = System.getProperty("starlight.offline-relight");
+    // min_y, height and has_skylight of the dimension type of the relit directory. required unless the directory is
+    // the overworld, the nether or the end of a vanilla world layout, in which case unset values are the vanilla ones
+    public static final Integer OFFLINE_RELIGHT_MIN_Y = Integer.getInteger("starlight.offline-relight-min-y");
+    public static final Integer OFFLINE_RELIGHT_HEIGHT = Integer.getInteger("starlight.offline-relight-height");
+    public static final Boolean OFFLINE_RELIGHT_SKY = System.getProperty("starlight.offline-relight-sky") == null
+            ? null : Boolean.valueOf(Boolean.getBoolean("starlight.offline-relight-sky"));
+    // number of region files relit at once by the offline relighter, each needs about one region of chunks in memory
+    public static final int OFFLINE_RELIGHT_THREADS = Integer.getInteger("starlight.offline-relight-threads", Runtime.getRuntime().availableProcessors());
+
+    // whether chunk loading uses the light arrays of the parsed chunk tag directly instead of copying them. only safe when
+    // nothing else holds on to loaded chunk tags: vanilla may hand out the tag of a save which is still pending, and
+    // taking its arrays would let later light changes leak into that save
+    public static final boolean TRANSFER_LOADED_LIGHT = Boolean.getBoolean("starlight.transfer-loaded-light");
+
+    // interval in seconds over which the light metrics of each world are summarised, see LightMetrics
+    public static final int METRICS_INTERVAL_SECONDS = Integer.getInteger("starlight.metrics-interval", 10);
+    // whether the summary of each interval is logged
+    public static final boolean LOG_METRICS = Boolean.getBoolean("starlight.log-metrics");
+
+    // whether combined sky and block light reads (getRawBrightness) use a byte per block copy of both layers, built per
+    // section on first read and rebuilt in place after the light of the section changes
+    public static final boolean COMBINED_LIGHT_CACHE = Boolean.getBoolean("starlight.combined-light-cache");
+    // number of sections the combined light cache of each world holds, rounded up to a power of two. uses 4KiB per
+    // section. the cache is two way set associative, so a third section mapped to the same set evicts one of them
+    public static final int COMBINED_LIGHT_CACHE_SECTIONS = Integer.getInteger("starlight.combined-light-cache-sections", 1024);
+
+    // number of threads running the light updates of every server world, instead of the shared background executor.
+    // values <= 0 keep the background executor. worlds still update one task at a time each, so more threads than
+    // worlds do not help. see LightExecutor
+    public static final int LIGHT_EXECUTOR_THREADS = Integer.getInteger("starlight.light-executor-threads", 0);
+    // whether the light executor uses a virtual thread per task instead, requires Java 21 and falls back to
+    // platform threads otherwise
+    public static final boolean LIGHT_EXECUTOR_VIRTUAL_THREADS = Boolean.getBoolean("starlight.light-executor-virtual-threads");
+
+    // whether saved chunks store fingerprints of the sides of their loaded neighbours, so that the edge checks done when
+    // the chunk is loaded again can be skipped if those neighbours did not change. see EdgeFingerprints
+    public static final boolean EDGE_FINGERPRINTS = Boolean.getBoolean("starlight.edge-fingerprints");
+
+    private StarlightConfig() {
+        throw new RuntimeException();
+    }
+}
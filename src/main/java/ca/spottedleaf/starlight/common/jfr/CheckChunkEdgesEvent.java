@@ -0,0 +1,25 @@
+package ca.spottedleaf.starlight.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("starlight.CheckChunkEdges")
+@Label("Check Chunk Edges")
+@Category({"Starlight", "Light Engine"})
+@StackTrace(false)
+public final class CheckChunkEdgesEvent extends jdk.jfr.Event {
+
+    @Label("Chunk X")
+    public int chunkX;
+
+    @Label("Chunk Z")
+    public int chunkZ;
+
+    @Label("Sky Light")
+    public boolean skylight;
+
+    @Label("Sections")
+    public int sections;
+}
@@ -0,0 +1,43 @@
+package ca.spottedleaf.starlight.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("starlight.ChunkTask")
+@Label("Light Chunk Task")
+@Description("All queued light work for one chunk")
+@Category({"Starlight", "Light Engine"})
+@StackTrace(false)
+public final class ChunkTaskEvent extends jdk.jfr.Event {
+
+    @Label("Chunk X")
+    public int chunkX;
+
+    @Label("Chunk Z")
+    public int chunkZ;
+
+    @Label("Block Changes")
+    public int blockChanges;
+
+    @Label("Section Changes")
+    public boolean sectionChanges;
+
+    @Label("Light Tasks")
+    @Description("Number of chunk lighting tasks, such as lighting a newly generated chunk")
+    public int lightTasks;
+
+    @Label("Sky Edge Checks")
+    public int skyEdgeChecks;
+
+    @Label("Block Edge Checks")
+    public int blockEdgeChecks;
+
+    @Label("Queue Time")
+    @Description("Time from the task being queued until its completion callbacks have run")
+    @Timespan(Timespan.NANOSECONDS)
+    public long queueTime;
+}
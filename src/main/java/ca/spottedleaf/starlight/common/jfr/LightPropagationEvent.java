@@ -0,0 +1,31 @@
+package ca.spottedleaf.starlight.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("starlight.LightPropagation")
+@Label("Light Propagation")
+@Description("One increase or decrease pass of a light engine")
+@Category({"Starlight", "Light Engine"})
+@StackTrace(false)
+// there are several passes per chunk task, so only record the ones long enough to matter by default
+@Threshold("1 ms")
+public final class LightPropagationEvent extends jdk.jfr.Event {
+
+    @Label("Increase")
+    public boolean increase;
+
+    @Label("Sky Light")
+    public boolean skylight;
+
+    @Label("Initial Queue Length")
+    public int initialQueueLength;
+
+    @Label("Processed Entries")
+    @Description("Number of queue entries processed, including those queued during the pass")
+    public int processedEntries;
+}
@@ -0,0 +1,28 @@
+package ca.spottedleaf.starlight.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("starlight.PropagateChanges")
+@Label("Propagate Light Changes")
+@Description("One drain of a world's light queue")
+@Category({"Starlight", "Light Engine"})
+@StackTrace(false)
+public final class PropagateChangesEvent extends jdk.jfr.Event {
+
+    @Label("World")
+    public String world;
+
+    @Label("Chunk Tasks")
+    public int tasks;
+
+    @Label("Parallel")
+    public boolean parallel;
+
+    @Label("Queue Empty")
+    @Description("Whether the drain emptied the queue, false when it stopped due to the propagation budget")
+    public boolean queueEmpty;
+}
@@ -0,0 +1,22 @@
+package ca.spottedleaf.starlight.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("starlight.RelightChunks")
+@Label("Relight Chunks")
+@Category({"Starlight", "Light Engine"})
+@StackTrace(false)
+public final class RelightChunksEvent extends jdk.jfr.Event {
+
+    @Label("Sky Light")
+    public boolean skylight;
+
+    @Label("Requested Chunks")
+    public int requestedChunks;
+
+    @Label("Relit Chunks")
+    public int relitChunks;
+}
@@ -2,8 +2,13 @@ package ca.spottedleaf.starlight.common.light;
 
 import ca.spottedleaf.starlight.common.blockstate.ExtendedAbstractBlockState;
 import ca.spottedleaf.starlight.common.chunk.ExtendedChunk;
+import ca.spottedleaf.starlight.common.chunk.ExtendedChunkSection;
+import ca.spottedleaf.starlight.common.util.CoordinateUtils;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import net.minecraft.core.BlockPos;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.LevelHeightAccessor;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.ChunkStatus;
@@ -11,19 +16,19 @@ import net.minecraft.world.level.chunk.ImposterProtoChunk;
 import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.level.chunk.LevelChunkSection;
 import net.minecraft.world.level.chunk.LightChunkGetter;
-import net.minecraft.world.level.chunk.PalettedContainer;
 import net.minecraft.world.phys.shapes.Shapes;
 import net.minecraft.world.phys.shapes.VoxelShape;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 public final class BlockStarLightEngine extends StarLightEngine {
 
     public BlockStarLightEngine(final Level world) {
-        super(false, world);
+        this(world, world.isClientSide);
+    }
+
+    public BlockStarLightEngine(final LevelHeightAccessor world, final boolean isClientSide) {
+        super(false, world, isClientSide);
     }
 
     @Override
@@ -195,75 +200,60 @@ public final class BlockStarLightEngine extends StarLightEngine {
     }
 
     @Override
-    protected void propagateBlockChanges(final LightChunkGetter lightAccess, final ChunkAccess atChunk, final Set<BlockPos> positions) {
-        for (final BlockPos pos : positions) {
-            this.checkBlock(lightAccess, pos.getX(), pos.getY(), pos.getZ());
+    protected void propagateBlockChanges(final LightChunkGetter lightAccess, final ChunkAccess atChunk, final LongSet positions) {
+        for (final LongIterator iterator = positions.iterator(); iterator.hasNext();) {
+            final long pos = iterator.nextLong();
+            this.checkBlock(lightAccess, CoordinateUtils.getBlockX(pos), CoordinateUtils.getBlockY(pos), CoordinateUtils.getBlockZ(pos));
         }
 
         this.performLightDecrease(lightAccess);
     }
 
-    protected List<BlockPos> getSources(final LightChunkGetter lightAccess, final ChunkAccess chunk) {
-        final List<BlockPos> sources = new ArrayList<>();
-
+    @Override
+    public void lightChunk(final LightChunkGetter lightAccess, final ChunkAccess chunk, final boolean needsEdgeChecks) {
+        // setup sources
+        final int emittedMask = this.emittedLightMask;
         final int offX = chunk.getPos().x << 4;
         final int offZ = chunk.getPos().z << 4;
 
         final LevelChunkSection[] sections = chunk.getSections();
         for (int sectionY = this.minSection; sectionY <= this.maxSection; ++sectionY) {
             final LevelChunkSection section = sections[sectionY - this.minSection];
-            if (section == null || section.hasOnlyAir()) {
-                // no sources in empty sections
+            final long[] sources = section == null || section.hasOnlyAir() ? null : ((ExtendedChunkSection)section).getLightSourceBitset();
+            if (sources == null) {
+                // no sources in section
                 continue;
             }
-            if (!section.maybeHas((final BlockState state) -> {
-                return state.getLightEmission() > 0;
-            })) {
-                // no light sources in palette
-                continue;
-            }
-            final PalettedContainer<BlockState> states = section.states;
             final int offY = sectionY << 4;
 
-            for (int index = 0; index < (16 * 16 * 16); ++index) {
-                final BlockState state = states.get(index);
-                if (state.getLightEmission() <= 0) {
-                    continue;
-                }
+            for (int i = 0, len = sources.length; i < len; ++i) {
+                for (long bitset = sources[i]; bitset != 0L; bitset &= (bitset - 1L)) {
+                    // index = x | (z << 4) | (y << 8)
+                    final int index = (i << 6) | Long.numberOfTrailingZeros(bitset);
+                    final int posX = offX | (index & 15);
+                    final int posY = offY | (index >>> 8);
+                    final int posZ = offZ | ((index >>> 4) & 15);
 
-                // index = x | (z << 4) | (y << 8)
-                sources.add(new BlockPos(offX | (index & 15), offY | (index >>> 8), offZ | ((index >>> 4) & 15)));
-            }
-        }
+                    final BlockState blockState = this.getBlockState(posX, posY, posZ);
+                    final int emittedLight = blockState.getLightEmission() & emittedMask;
 
-        return sources;
-    }
+                    if (emittedLight <= this.getLightLevel(posX, posY, posZ)) {
+                        // some other source is brighter
+                        continue;
+                    }
 
-    @Override
-    public void lightChunk(final LightChunkGetter lightAccess, final ChunkAccess chunk, final boolean needsEdgeChecks) {
-        // setup sources
-        final int emittedMask = this.emittedLightMask;
-        final List<BlockPos> positions = this.getSources(lightAccess, chunk);
-        for (int i = 0, len = positions.size(); i < len; ++i) {
-            final BlockPos pos = positions.get(i);
-            final BlockState blockState = this.getBlockState(pos.getX(), pos.getY(), pos.getZ());
-            final int emittedLight = blockState.getLightEmission() & emittedMask;
-
-            if (emittedLight <= this.getLightLevel(pos.getX(), pos.getY(), pos.getZ())) {
-                // some other source is brighter
-                continue;
-            }
+                    this.appendToIncreaseQueue(
+                            ((posX + (posZ << 6) + (posY << (6 + 6)) + this.coordinateOffset) & ((1L << (6 + 6 + 16)) - 1))
+                                    | (emittedLight & 0xFL) << (6 + 6 + 16)
+                                    | (((long)ALL_DIRECTIONS_BITSET) << (6 + 6 + 16 + 4))
+                                    | (((ExtendedAbstractBlockState)blockState).isConditionallyFullOpaque() ? FLAG_HAS_SIDED_TRANSPARENT_BLOCKS : 0)
+                    );
 
-            this.appendToIncreaseQueue(
-                    ((pos.getX() + (pos.getZ() << 6) + (pos.getY() << (6 + 6)) + this.coordinateOffset) & ((1L << (6 + 6 + 16)) - 1))
-                            | (emittedLight & 0xFL) << (6 + 6 + 16)
-                            | (((long)ALL_DIRECTIONS_BITSET) << (6 + 6 + 16 + 4))
-                            | (((ExtendedAbstractBlockState)blockState).isConditionallyFullOpaque() ? FLAG_HAS_SIDED_TRANSPARENT_BLOCKS : 0)
-            );
 
-
-            // propagation wont set this for us
-            this.setLightLevel(pos.getX(), pos.getY(), pos.getZ(), emittedLight);
+                    // propagation wont set this for us
+                    this.setLightLevel(posX, posY, posZ, emittedLight);
+                }
+            }
         }
 
         if (needsEdgeChecks) {
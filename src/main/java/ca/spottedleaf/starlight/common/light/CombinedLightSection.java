@@ -0,0 +1,83 @@
+package ca.spottedleaf.starlight.common.light;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sky and block light of one section packed into one byte per position, with sky light in the upper 4 bits and
+ * block light in the lower 4 bits. It is an entry of the bounded combined light cache of a world, built on demand from
+ * the visible data of the two nibbles and rebuilt in place when it is needed for other nibbles, or when the versions of
+ * its nibbles changed. So, the light engines only ever work on the nibbles.
+ * <p>
+ * Readers do not lock: the section is rebuilt by one thread at a time, which makes the sequence odd while it writes,
+ * and a read is only used if the sequence was even and unchanged around it (the same validation as StampedLock).
+ * </p>
+ */
+public final class CombinedLightSection {
+
+    public static final int ARRAY_SIZE = 16 * 16 * 16;
+
+    // even when the section is not being rebuilt
+    private final AtomicInteger sequence = new AtomicInteger();
+    // only written while the sequence is odd
+    private SWMRNibbleArray sky;
+    private SWMRNibbleArray block;
+    private long skyVersion;
+    private long blockVersion;
+    private final byte[] data = new byte[ARRAY_SIZE];
+
+    // index is (x & 15) | ((z & 15) << 4) | ((y & 15) << 8), same as the nibbles
+    // returns -1 if the section is not built for the current versions of the nibbles, or is being rebuilt
+    public int get(final SWMRNibbleArray sky, final SWMRNibbleArray block, final int index) {
+        final int sequence = this.sequence.get();
+        if ((sequence & 1) != 0) {
+            return -1;
+        }
+
+        final boolean valid = this.sky == sky && this.block == block
+                && this.skyVersion == sky.getVisibleGeneration() && this.blockVersion == block.getVisibleGeneration();
+        final int ret = this.data[index] & 0xFF;
+
+        // the reads above must not move below the validation
+        VarHandle.acquireFence();
+        return valid && this.sequence.get() == sequence ? ret : -1;
+    }
+
+    // returns false if another thread is rebuilding the section, or if either nibble changed while building
+    public boolean rebuild(final SWMRNibbleArray sky, final SWMRNibbleArray block) {
+        final int sequence = this.sequence.get();
+        if ((sequence & 1) != 0 || !this.sequence.compareAndSet(sequence, sequence + 1)) {
+            return false;
+        }
+
+        boolean built = false;
+        try {
+            // Versions are read before and after the data. This does not always detect a concurrent change:
+            // updateVisible may copy the new light into the visible array in place before it bumps the version, so
+            // the data read here can mix old and new light while both reads return the old version. Such data is only
+            // used until the bump invalidates it, and readers of the nibbles see the same mix while the copy runs.
+            final long skyVersion = sky.getVisibleGeneration();
+            final long blockVersion = block.getVisibleGeneration();
+
+            final byte[] skyData = sky.storageVisible;
+            final byte[] blockData = block.storageVisible;
+            final byte[] data = this.data;
+            for (int i = 0; i < SWMRNibbleArray.ARRAY_SIZE; ++i) {
+                final int skyByte = skyData == null ? 0 : skyData[i];
+                final int blockByte = blockData == null ? 0 : blockData[i];
+                data[i << 1] = (byte)(((skyByte & 0xF) << 4) | (blockByte & 0xF));
+                data[(i << 1) | 1] = (byte)((skyByte & 0xF0) | ((blockByte >>> 4) & 0xF));
+            }
+
+            built = sky.getVisibleGeneration() == skyVersion && block.getVisibleGeneration() == blockVersion;
+            this.skyVersion = skyVersion;
+            this.blockVersion = blockVersion;
+            return built;
+        } finally {
+            // never leave the section valid for data that is not fully built
+            this.sky = built ? sky : null;
+            this.block = built ? block : null;
+            this.sequence.set(sequence + 2);
+        }
+    }
+}
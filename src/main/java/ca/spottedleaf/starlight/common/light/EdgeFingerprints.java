@@ -0,0 +1,122 @@
+package ca.spottedleaf.starlight.common.light;
+
+import ca.spottedleaf.starlight.common.chunk.ExtendedChunk;
+import ca.spottedleaf.starlight.common.util.CoordinateUtils;
+import ca.spottedleaf.starlight.common.util.WorldUtil;
+import it.unimi.dsi.fastutil.HashCommon;
+import net.minecraft.world.level.LevelHeightAccessor;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.ChunkStatus;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import java.util.function.LongFunction;
+
+/**
+ * Hashes of the light and block states along the side of a chunk.
+ * <p>
+ * When a chunk is saved, the side of each loaded neighbour facing it is hashed and stored with the chunk. A chunk
+ * loaded with its saved light only needs its edges checked against a neighbour if the neighbour's side changed since,
+ * because the light of the chunk itself is exactly as it was when it was saved next to that neighbour.
+ * </p>
+ */
+public final class EdgeFingerprints {
+
+    // indexed by direction from the chunk to its neighbour
+    public static final int WEST = 0; // -x
+    public static final int EAST = 1; // +x
+    public static final int NORTH = 2; // -z
+    public static final int SOUTH = 3; // +z
+    public static final int DIRECTIONS = 4;
+
+    private static final int[] OFFSET_X = new int[] { -1, 1, 0, 0 };
+    private static final int[] OFFSET_Z = new int[] { 0, 0, -1, 1 };
+
+    // never produced by fingerprint(), stored when the neighbour was not loaded
+    public static final long UNKNOWN = 0L;
+
+    public static int getNeighbourX(final int chunkX, final int direction) {
+        return chunkX + OFFSET_X[direction];
+    }
+
+    public static int getNeighbourZ(final int chunkZ, final int direction) {
+        return chunkZ + OFFSET_Z[direction];
+    }
+
+    public static boolean canFingerprint(final ChunkAccess neighbour) {
+        return neighbour != null && neighbour.getStatus().isOrAfter(ChunkStatus.LIGHT) && neighbour.isLightCorrect();
+    }
+
+    // fingerprints of the sides of the neighbours of the chunk facing it, UNKNOWN for neighbours which can't be used.
+    // getChunk maps a chunk key to the chunk, or null if it is not loaded
+    public static long[] fingerprintNeighbours(final LevelHeightAccessor world, final int chunkX, final int chunkZ,
+                                               final LongFunction<ChunkAccess> getChunk) {
+        final long[] ret = new long[DIRECTIONS];
+        for (int direction = 0; direction < DIRECTIONS; ++direction) {
+            final ChunkAccess neighbour = getChunk.apply(CoordinateUtils.getChunkKey(getNeighbourX(chunkX, direction), getNeighbourZ(chunkZ, direction)));
+            ret[direction] = canFingerprint(neighbour) ? fingerprint(world, neighbour, direction) : UNKNOWN;
+        }
+        return ret;
+    }
+
+    // hashes the side of the neighbour which faces the chunk it is in the given direction of
+    public static long fingerprint(final LevelHeightAccessor world, final ChunkAccess neighbour, final int direction) {
+        // the neighbour's column touching the chunk
+        final boolean alongX = direction == NORTH || direction == SOUTH;
+        final int fixed = (direction == WEST || direction == NORTH) ? 15 : 0;
+
+        final int minLightSection = WorldUtil.getMinLightSection(world);
+        final int maxLightSection = WorldUtil.getMaxLightSection(world);
+        final int minSection = WorldUtil.getMinSection(world);
+        final int maxSection = WorldUtil.getMaxSection(world);
+
+        final SWMRNibbleArray[] skyNibbles = ((ExtendedChunk)neighbour).getSkyNibbles();
+        final SWMRNibbleArray[] blockNibbles = ((ExtendedChunk)neighbour).getBlockNibbles();
+        final LevelChunkSection[] sections = neighbour.getSections();
+
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int sectionY = minLightSection; sectionY <= maxLightSection; ++sectionY) {
+            final SWMRNibbleArray sky = skyNibbles == null ? null : skyNibbles[sectionY - minLightSection];
+            final SWMRNibbleArray block = blockNibbles == null ? null : blockNibbles[sectionY - minLightSection];
+            final byte[] skyData = sky == null ? null : sky.storageVisible;
+            final byte[] blockData = block == null ? null : block.storageVisible;
+
+            // mixed one after the other, as a missing nibble (-1) would set every bit of a combined value
+            hash = mix(hash, sky == null ? -1 : sky.stateVisible);
+            hash = mix(hash, block == null ? -1 : block.stateVisible);
+
+            final LevelChunkSection section = sectionY >= minSection && sectionY <= maxSection ? sections[sectionY - minSection] : null;
+            final boolean hasBlocks = section != null && !section.hasOnlyAir();
+            if (skyData == null && blockData == null && !hasBlocks) {
+                continue;
+            }
+
+            for (int y = 0; y < 16; ++y) {
+                for (int i = 0; i < 16; ++i) {
+                    final int x = alongX ? i : fixed;
+                    final int z = alongX ? fixed : i;
+                    final int index = x | (z << 4) | (y << 8);
+
+                    int value = (getNibble(skyData, index) << 4) | getNibble(blockData, index);
+                    if (hasBlocks) {
+                        value |= Block.getId(section.getBlockState(x, y, z)) << 8;
+                    }
+                    hash = mix(hash, value);
+                }
+            }
+        }
+
+        return hash == UNKNOWN ? 1L : hash;
+    }
+
+    private static int getNibble(final byte[] data, final int index) {
+        return data == null ? 0 : (data[index >>> 1] >>> ((index & 1) << 2)) & 0xF;
+    }
+
+    private static long mix(final long hash, final int value) {
+        return HashCommon.mix(hash + (long)value);
+    }
+
+    private EdgeFingerprints() {
+        throw new RuntimeException();
+    }
+}
@@ -0,0 +1,133 @@
+package ca.spottedleaf.starlight.common.light;
+
+import ca.spottedleaf.starlight.common.config.StarlightConfig;
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executor running the light mailbox of every server world, used instead of the shared background executor when
+ * configured. Each world's mailbox still runs one task at a time, so the number of workers bounds how many worlds can
+ * run light updates at once.
+ */
+public final class LightExecutor implements Executor {
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static volatile LightExecutor instance;
+
+    private final ExecutorService executor;
+    // 0 for virtual threads, which are not bounded
+    public final int workers;
+
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    private final LongAdder completedTasks = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+
+    private final long startTime = System.nanoTime();
+    // busy time and time of the last call to sampleBusyWorkers
+    private long lastSampleBusyNanos;
+    private long lastSampleTime = this.startTime;
+
+    private LightExecutor(final ExecutorService executor, final int workers) {
+        this.executor = executor;
+        this.workers = workers;
+    }
+
+    public static boolean isEnabled() {
+        return StarlightConfig.LIGHT_EXECUTOR_THREADS > 0 || StarlightConfig.LIGHT_EXECUTOR_VIRTUAL_THREADS;
+    }
+
+    /**
+     * Returns the executor shared by every world, or {@code null} if it is not enabled.
+     */
+    public static LightExecutor getInstance() {
+        if (!isEnabled()) {
+            return null;
+        }
+        LightExecutor ret = instance;
+        if (ret != null) {
+            return ret;
+        }
+        synchronized (LightExecutor.class) {
+            if ((ret = instance) != null) {
+                return ret;
+            }
+            return instance = create();
+        }
+    }
+
+    private static LightExecutor create() {
+        if (StarlightConfig.LIGHT_EXECUTOR_VIRTUAL_THREADS) {
+            try {
+                // only available on Java 21+
+                final ExecutorService executor = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                return new LightExecutor(executor, 0);
+            } catch (final ReflectiveOperationException ex) {
+                LOGGER.warn("Virtual threads are not supported by this Java version, using platform threads for the light executor");
+            }
+        }
+
+        final int workers = Math.max(1, StarlightConfig.LIGHT_EXECUTOR_THREADS);
+        final AtomicInteger threadCounter = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(workers, (final Runnable run) -> {
+            final Thread thread = new Thread(run);
+            thread.setName("Starlight Light Worker #" + threadCounter.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler((final Thread t, final Throwable thr) -> {
+                LOGGER.error("Uncaught exception in thread " + t.getName(), thr);
+            });
+            return thread;
+        });
+        return new LightExecutor(executor, workers);
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        this.executor.execute(() -> {
+            this.activeTasks.getAndIncrement();
+            final long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                this.busyNanos.add(System.nanoTime() - start);
+                this.completedTasks.increment();
+                this.activeTasks.getAndDecrement();
+            }
+        });
+    }
+
+    public int getActiveTasks() {
+        return this.activeTasks.get();
+    }
+
+    public long getCompletedTasks() {
+        return this.completedTasks.sum();
+    }
+
+    /**
+     * Returns the average number of workers running a task since the previous call, or since the executor was created
+     * for the first call. Tasks still running are only counted once they complete.
+     */
+    public synchronized double sampleBusyWorkers() {
+        final long time = System.nanoTime();
+        final long busy = this.busyNanos.sum();
+
+        final long elapsed = time - this.lastSampleTime;
+        final double ret = elapsed <= 0L ? 0.0 : (double)(busy - this.lastSampleBusyNanos) / (double)elapsed;
+
+        this.lastSampleTime = time;
+        this.lastSampleBusyNanos = busy;
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return (this.workers == 0 ? "virtual threads" : this.workers + " workers") + ", "
+                + this.getActiveTasks() + " running, " + this.getCompletedTasks() + " completed";
+    }
+}
@@ -0,0 +1,126 @@
+package ca.spottedleaf.starlight.common.light;
+
+import ca.spottedleaf.starlight.common.chunk.ExtendedChunk;
+import net.minecraft.server.level.ChunkHolder;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.chunk.ChunkAccess;
+
+/**
+ * Snapshot of the memory used by the light data of the chunks of a world and by its pooled light engines.
+ * <p>
+ * Values are read without synchronisation while the light engine may be running, so they are estimates.
+ * </p>
+ */
+public final class LightMemoryStats {
+
+    // rough size of a SWMRNibbleArray object with compressed oops
+    private static final int NIBBLE_OBJECT_BYTES = 32;
+
+    public int chunks;
+
+    // indexed by SWMRNibbleArray#INIT_STATE_*, visible state
+    public final long[] nibblesByState = new long[4];
+    // nibbles with changes not yet made visible, which hold a second array
+    public long nibblesWithSeparateBuffers;
+    // nibbles using the shared uniform arrays
+    public long sharedUniformNibbles;
+    // byte arrays owned by a single nibble
+    public long privateBuffers;
+
+    // arrays waiting for reuse in the working pools of every live thread. approximate, as the pools are counted while
+    // their threads may be using them
+    public long pooledWorkingBuffers;
+
+    public int pooledEngines;
+    // in longs, summed over the increase and decrease queues of every pooled engine
+    public long pooledEngineQueueCapacity;
+
+    public static LightMemoryStats collect(final ServerLevel world) {
+        final LightMemoryStats ret = new LightMemoryStats();
+
+        for (final ChunkHolder holder : world.getChunkSource().chunkMap.getChunks()) {
+            final ChunkAccess chunk = holder.getLastAvailable();
+            if (chunk != null) {
+                ret.addChunk(chunk);
+            }
+        }
+
+        ((StarLightLightingProvider)world.getChunkSource().getLightEngine()).getLightEngine().addPooledEngineStats(ret);
+        ret.pooledWorkingBuffers = SWMRNibbleArray.countPooledWorkingBytes();
+
+        return ret;
+    }
+
+    public void addChunk(final ChunkAccess chunk) {
+        ++this.chunks;
+        this.addNibbles(((ExtendedChunk)chunk).getBlockNibbles());
+        this.addNibbles(((ExtendedChunk)chunk).getSkyNibbles());
+    }
+
+    private void addNibbles(final SWMRNibbleArray[] nibbles) {
+        if (nibbles == null) {
+            return;
+        }
+        for (final SWMRNibbleArray nibble : nibbles) {
+            if (nibble != null) {
+                this.addNibble(nibble);
+            }
+        }
+    }
+
+    public void addNibble(final SWMRNibbleArray nibble) {
+        final int state = nibble.stateVisible;
+        final byte[] visible = nibble.storageVisible;
+        final byte[] updating = nibble.storageUpdating;
+
+        ++this.nibblesByState[state];
+
+        if (visible != null) {
+            if (SWMRNibbleArray.isShared(visible)) {
+                ++this.sharedUniformNibbles;
+            } else {
+                ++this.privateBuffers;
+            }
+        }
+        if (updating != null && updating != visible) {
+            ++this.nibblesWithSeparateBuffers;
+            if (!SWMRNibbleArray.isShared(updating)) {
+                ++this.privateBuffers;
+            }
+        }
+    }
+
+    public void addPooledEngine(final StarLightEngine engine) {
+        ++this.pooledEngines;
+        this.pooledEngineQueueCapacity += (long)engine.increaseQueue.length + (long)engine.decreaseQueue.length;
+    }
+
+    public long getTotalNibbles() {
+        long ret = 0L;
+        for (final long count : this.nibblesByState) {
+            ret += count;
+        }
+        return ret;
+    }
+
+    public long estimateBytes() {
+        return this.getTotalNibbles() * (long)NIBBLE_OBJECT_BYTES
+                + (this.privateBuffers + this.pooledWorkingBuffers) * (long)SWMRNibbleArray.ARRAY_SIZE
+                + this.pooledEngineQueueCapacity * (long)Long.BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return this.chunks + " chunks, " + this.getTotalNibbles() + " nibbles ("
+                + this.nibblesByState[SWMRNibbleArray.INIT_STATE_NULL] + " null, "
+                + this.nibblesByState[SWMRNibbleArray.INIT_STATE_UNINIT] + " uninit, "
+                + this.nibblesByState[SWMRNibbleArray.INIT_STATE_INIT] + " init, "
+                + this.nibblesByState[SWMRNibbleArray.INIT_STATE_HIDDEN] + " hidden), "
+                + this.sharedUniformNibbles + " shared uniform, "
+                + this.nibblesWithSeparateBuffers + " with separate updating buffers, "
+                + this.privateBuffers + " private buffers, "
+                + "~" + this.pooledWorkingBuffers + " pooled working buffers, "
+                + this.pooledEngines + " pooled engines with " + this.pooledEngineQueueCapacity + " queue entries, ~"
+                + (this.estimateBytes() >> 20) + " MiB";
+    }
+}
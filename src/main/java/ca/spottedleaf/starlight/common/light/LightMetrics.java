@@ -0,0 +1,213 @@
+package ca.spottedleaf.starlight.common.light;
+
+import ca.spottedleaf.starlight.common.config.StarlightConfig;
+import com.mojang.logging.LogUtils;
+import net.minecraft.world.level.Level;
+import org.slf4j.Logger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the work done by the light engine of a world. All counters are cumulative, use
+ * {@link Snapshot#since(Snapshot)} to compute the values over an interval.
+ */
+public final class LightMetrics {
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(Math.max(1, StarlightConfig.METRICS_INTERVAL_SECONDS));
+
+    // task queue times are recorded into buckets by bit length, bucket i holds times in [2^(i-1), 2^i) nanoseconds
+    private static final int QUEUE_TIME_BUCKETS = Long.SIZE + 1;
+
+    protected final StarLightInterface lightInterface;
+
+    protected final LongAdder completedTasks = new LongAdder();
+    protected final AtomicLongArray queueTimeBuckets = new AtomicLongArray(QUEUE_TIME_BUCKETS);
+
+    protected final LongAdder increasePasses = new LongAdder();
+    protected final LongAdder increaseEntries = new LongAdder();
+    protected final LongAdder decreasePasses = new LongAdder();
+    protected final LongAdder decreaseEntries = new LongAdder();
+
+    protected final LongAdder engineAcquisitions = new LongAdder();
+    protected final LongAdder engineWaitNanos = new LongAdder();
+
+    // start of the current interval and the last completed one, rolled by tick()
+    protected volatile Snapshot lastSnapshot;
+    protected volatile Snapshot lastInterval;
+
+    public LightMetrics(final StarLightInterface lightInterface) {
+        this.lightInterface = lightInterface;
+        this.lastSnapshot = this.snapshot();
+    }
+
+    void recordTask(final long queueTimeNanos) {
+        this.completedTasks.increment();
+        this.queueTimeBuckets.getAndIncrement(Long.SIZE - Long.numberOfLeadingZeros(Math.max(0L, queueTimeNanos)));
+    }
+
+    void recordPropagation(final boolean increase, final int entries) {
+        if (increase) {
+            this.increasePasses.increment();
+            this.increaseEntries.add(entries);
+        } else {
+            this.decreasePasses.increment();
+            this.decreaseEntries.add(entries);
+        }
+    }
+
+    void recordEngineAcquire(final long waitNanos) {
+        this.engineAcquisitions.increment();
+        this.engineWaitNanos.add(waitNanos);
+    }
+
+    public Snapshot snapshot() {
+        final long[] buckets = new long[QUEUE_TIME_BUCKETS];
+        for (int i = 0; i < QUEUE_TIME_BUCKETS; ++i) {
+            buckets[i] = this.queueTimeBuckets.get(i);
+        }
+
+        return new Snapshot(
+                System.nanoTime(), 0L, this.lightInterface.lightQueue.size(), this.completedTasks.sum(), buckets,
+                this.increasePasses.sum(), this.increaseEntries.sum(), this.decreasePasses.sum(), this.decreaseEntries.sum(),
+                this.engineAcquisitions.sum(), this.engineWaitNanos.sum()
+        );
+    }
+
+    /**
+     * Returns the values over the last interval completed by {@link #tick()}, or {@code null} if no interval
+     * has completed yet.
+     */
+    public Snapshot getLastInterval() {
+        return this.lastInterval;
+    }
+
+    // called once per tick by the server world, completes the current interval once it is over
+    public void tick() {
+        final Snapshot last = this.lastSnapshot;
+        if (System.nanoTime() - last.time < INTERVAL_NANOS) {
+            return;
+        }
+
+        final Snapshot current = this.snapshot();
+        final Snapshot interval = current.since(last);
+
+        this.lastSnapshot = current;
+        this.lastInterval = interval;
+
+        if (StarlightConfig.LOG_METRICS) {
+            final Level world = this.lightInterface.getWorld();
+            LOGGER.info("Light metrics for " + (world == null ? "empty world" : world.dimension().location()) + ": " + interval);
+        }
+    }
+
+    public static final class Snapshot {
+
+        public final long time;
+        // 0 for a snapshot of the cumulative counters
+        public final long elapsedNanos;
+
+        // tasks queued at the time of the snapshot
+        public final int queueSize;
+
+        public final long completedTasks;
+        private final long[] queueTimeBuckets;
+
+        public final long increasePasses;
+        public final long increaseEntries;
+        public final long decreasePasses;
+        public final long decreaseEntries;
+
+        public final long engineAcquisitions;
+        public final long engineWaitNanos;
+
+        private Snapshot(final long time, final long elapsedNanos, final int queueSize, final long completedTasks,
+                         final long[] queueTimeBuckets, final long increasePasses, final long increaseEntries,
+                         final long decreasePasses, final long decreaseEntries, final long engineAcquisitions,
+                         final long engineWaitNanos) {
+            this.time = time;
+            this.elapsedNanos = elapsedNanos;
+            this.queueSize = queueSize;
+            this.completedTasks = completedTasks;
+            this.queueTimeBuckets = queueTimeBuckets;
+            this.increasePasses = increasePasses;
+            this.increaseEntries = increaseEntries;
+            this.decreasePasses = decreasePasses;
+            this.decreaseEntries = decreaseEntries;
+            this.engineAcquisitions = engineAcquisitions;
+            this.engineWaitNanos = engineWaitNanos;
+        }
+
+        /**
+         * Returns the difference of the counters between the given earlier snapshot and this one. The queue size is the
+         * one of this snapshot.
+         */
+        public Snapshot since(final Snapshot previous) {
+            final long[] buckets = new long[QUEUE_TIME_BUCKETS];
+            for (int i = 0; i < QUEUE_TIME_BUCKETS; ++i) {
+                buckets[i] = this.queueTimeBuckets[i] - previous.queueTimeBuckets[i];
+            }
+
+            return new Snapshot(
+                    this.time, this.time - previous.time, this.queueSize, this.completedTasks - previous.completedTasks,
+                    buckets, this.increasePasses - previous.increasePasses, this.increaseEntries - previous.increaseEntries,
+                    this.decreasePasses - previous.decreasePasses, this.decreaseEntries - previous.decreaseEntries,
+                    this.engineAcquisitions - previous.engineAcquisitions, this.engineWaitNanos - previous.engineWaitNanos
+            );
+        }
+
+        public double getTasksPerSecond() {
+            return this.elapsedNanos <= 0L ? 0.0 : (double)this.completedTasks * 1.0E9 / (double)this.elapsedNanos;
+        }
+
+        /**
+         * Returns an upper bound, within a factor of 2, of the given percentile of the time from a task being
+         * queued to its completion. Returns 0 if no tasks completed.
+         */
+        public long getQueueTimePercentileNanos(final double percentile) {
+            if (this.completedTasks <= 0L) {
+                return 0L;
+            }
+
+            final long target = Math.max(1L, (long)Math.ceil(percentile * (double)this.completedTasks));
+            long seen = 0L;
+            for (int i = 0; i < QUEUE_TIME_BUCKETS; ++i) {
+                seen += this.queueTimeBuckets[i];
+                if (seen >= target) {
+                    return i >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i);
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        public double getAverageIncreaseEntries() {
+            return this.increasePasses == 0L ? 0.0 : (double)this.increaseEntries / (double)this.increasePasses;
+        }
+
+        public double getAverageDecreaseEntries() {
+            return this.decreasePasses == 0L ? 0.0 : (double)this.decreaseEntries / (double)this.decreasePasses;
+        }
+
+        public double getAverageEngineWaitNanos() {
+            return this.engineAcquisitions == 0L ? 0.0 : (double)this.engineWaitNanos / (double)this.engineAcquisitions;
+        }
+
+        private static String formatMillis(final long nanos) {
+            return String.format("%.2fms", (double)nanos / 1.0E6);
+        }
+
+        @Override
+        public String toString() {
+            return "queue " + this.queueSize + ", "
+                    + String.format("%.1f", this.getTasksPerSecond()) + " tasks/s, task time p50 "
+                    + formatMillis(this.getQueueTimePercentileNanos(0.50)) + " p95 "
+                    + formatMillis(this.getQueueTimePercentileNanos(0.95)) + " p99 "
+                    + formatMillis(this.getQueueTimePercentileNanos(0.99)) + ", "
+                    + this.increasePasses + " increase passes (avg " + String.format("%.1f", this.getAverageIncreaseEntries()) + " blocks), "
+                    + this.decreasePasses + " decrease passes (avg " + String.format("%.1f", this.getAverageDecreaseEntries()) + " blocks), "
+                    + "engine wait " + formatMillis(this.engineWaitNanos) + " over " + this.engineAcquisitions + " acquisitions";
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package ca.spottedleaf.starlight.common.light;
+
+import ca.spottedleaf.starlight.common.util.CoordinateUtils;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.LightChunkGetter;
+import java.util.Set;
+
+/**
+ * Light data of one light type for an in-progress {@link StarLightEngine#relightChunks} call. Every chunk of the set and
+ * every usable neighbour of the set is lit once, and the light data of a chunk is only needed until every chunk in its
+ * 3x3 neighbourhood has been lit. After that it is released, and applied to the chunk if it is part of the set.
+ * <p>
+ * All methods are synchronised so that the state can be shared by engines relighting separate regions at once.
+ * </p>
+ */
+public final class RelightState {
+
+    public final Set<ChunkPos> chunks;
+
+    // every chunk which is lit as part of this relight
+    private final LongOpenHashSet toLight = new LongOpenHashSet();
+    private final LongOpenHashSet litChunks = new LongOpenHashSet();
+    // number of chunks in the 3x3 neighbourhood that still have to be lit, removed once the chunk is complete
+    private final Long2IntOpenHashMap remainingNeighbours = new Long2IntOpenHashMap();
+    private final Long2ObjectOpenHashMap<SWMRNibbleArray[]> nibblesByChunk = new Long2ObjectOpenHashMap<>();
+    private final Long2ObjectOpenHashMap<boolean[]> emptinessMapByChunk = new Long2ObjectOpenHashMap<>();
+
+    public RelightState(final StarLightEngine engine, final LightChunkGetter lightAccess, final Set<ChunkPos> chunks) {
+        this.chunks = chunks;
+
+        for (final ChunkPos chunkPos : chunks) {
+            for (int dz = -1; dz <= 1; ++dz) {
+                for (int dx = -1; dx <= 1; ++dx) {
+                    final long key = CoordinateUtils.getChunkKey(chunkPos.x + dx, chunkPos.z + dz);
+                    if (this.toLight.contains(key)) {
+                        continue;
+                    }
+                    final ChunkAccess chunk = (ChunkAccess)lightAccess.getChunkForLighting(chunkPos.x + dx, chunkPos.z + dz);
+                    if (chunk != null && engine.canUseChunk(chunk)) {
+                        this.toLight.add(key);
+                    }
+                }
+            }
+        }
+
+        for (final LongIterator iterator = this.toLight.iterator(); iterator.hasNext();) {
+            final long key = iterator.nextLong();
+            final int chunkX = CoordinateUtils.getChunkX(key);
+            final int chunkZ = CoordinateUtils.getChunkZ(key);
+            int count = 0;
+            for (int dz = -1; dz <= 1; ++dz) {
+                for (int dx = -1; dx <= 1; ++dx) {
+                    if (this.toLight.contains(CoordinateUtils.getChunkKey(chunkX + dx, chunkZ + dz))) {
+                        ++count;
+                    }
+                }
+            }
+            this.remainingNeighbours.put(key, count);
+        }
+    }
+
+    synchronized boolean needsLight(final long chunkKey) {
+        return this.toLight.contains(chunkKey) && !this.litChunks.contains(chunkKey);
+    }
+
+    synchronized SWMRNibbleArray[] getNibbles(final long chunkKey) {
+        return this.nibblesByChunk.get(chunkKey);
+    }
+
+    synchronized boolean[] getEmptinessMap(final long chunkKey) {
+        return this.emptinessMapByChunk.get(chunkKey);
+    }
+
+    synchronized void startLighting(final long chunkKey, final SWMRNibbleArray[] nibbles, final boolean[] emptinessMap) {
+        this.litChunks.add(chunkKey);
+        this.nibblesByChunk.put(chunkKey, nibbles);
+        this.emptinessMapByChunk.put(chunkKey, emptinessMap);
+    }
+
+    // returns the chunks whose neighbourhood is now fully lit
+    synchronized LongList finishLighting(final int chunkX, final int chunkZ) {
+        final LongList ret = new LongArrayList();
+        for (int dz = -1; dz <= 1; ++dz) {
+            for (int dx = -1; dx <= 1; ++dx) {
+                final long key = CoordinateUtils.getChunkKey(chunkX + dx, chunkZ + dz);
+                if (!this.remainingNeighbours.containsKey(key)) {
+                    continue;
+                }
+                if (this.remainingNeighbours.addTo(key, -1) == 1) {
+                    this.remainingNeighbours.remove(key);
+                    ret.add(key);
+                }
+            }
+        }
+        return ret;
+    }
+
+    // returns whether the chunk was still pending and is now complete
+    synchronized boolean tryComplete(final long chunkKey) {
+        if (!this.litChunks.contains(chunkKey) || !this.remainingNeighbours.containsKey(chunkKey)) {
+            return false;
+        }
+        this.remainingNeighbours.remove(chunkKey);
+        return true;
+    }
+
+    synchronized SWMRNibbleArray[] release(final long chunkKey) {
+        this.emptinessMapByChunk.remove(chunkKey);
+        return this.nibblesByChunk.remove(chunkKey);
+    }
+}
@@ -1,8 +1,12 @@
 package ca.spottedleaf.starlight.common.light;
 
 import net.minecraft.world.level.chunk.DataLayer;
+import java.lang.ref.WeakReference;
 import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 // SWMR -> Single Writer Multi Reader Nibble Array
 public final class SWMRNibbleArray {
@@ -24,11 +28,27 @@ public final class SWMRNibbleArray {
 
     public static final int ARRAY_SIZE = 16 * 16 * 16 / (8/4); // blocks / bytes per block
     // this allows us to maintain only 1 byte array when we're not updating
-    static final ThreadLocal<ArrayDeque<byte[]>> WORKING_BYTES_POOL = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final ThreadLocal<WorkingBytesPool> WORKING_BYTES_POOL = ThreadLocal.withInitial(WorkingBytesPool::new);
+    // every pool, for LightMemoryStats. only weakly referenced, so the pool of a thread which died can still be collected
+    private static final ConcurrentLinkedQueue<WeakReference<WorkingBytesPool>> WORKING_BYTES_POOLS = new ConcurrentLinkedQueue<>();
+
+    private static final class WorkingBytesPool {
+
+        public final Thread owner = Thread.currentThread();
+        public final ArrayDeque<byte[]> arrays = new ArrayDeque<>();
+        // written only by the owner, read by other threads for stats
+        public volatile int count;
+
+        public WorkingBytesPool() {
+            WORKING_BYTES_POOLS.add(new WeakReference<>(this));
+        }
+    }
 
     private static byte[] allocateBytes() {
-        final byte[] inPool = WORKING_BYTES_POOL.get().pollFirst();
+        final WorkingBytesPool pool = WORKING_BYTES_POOL.get();
+        final byte[] inPool = pool.arrays.pollFirst();
         if (inPool != null) {
+            pool.count = pool.arrays.size();
             return inPool;
         }
 
@@ -36,7 +56,67 @@ public final class SWMRNibbleArray {
     }
 
     private static void freeBytes(final byte[] bytes) {
-        WORKING_BYTES_POOL.get().addFirst(bytes);
+        final WorkingBytesPool pool = WORKING_BYTES_POOL.get();
+        pool.arrays.addFirst(bytes);
+        pool.count = pool.arrays.size();
+    }
+
+    // returns the number of arrays in the pools of every live thread, and forgets the pools of threads which died. the
+    // result is approximate, as the pools may be in use by their threads while they are counted
+    static long countPooledWorkingBytes() {
+        long ret = 0L;
+        for (final Iterator<WeakReference<WorkingBytesPool>> iterator = WORKING_BYTES_POOLS.iterator(); iterator.hasNext();) {
+            final WorkingBytesPool pool = iterator.next().get();
+            if (pool == null || !pool.owner.isAlive()) {
+                iterator.remove();
+                continue;
+            }
+            ret += (long)pool.count;
+        }
+        return ret;
+    }
+
+    // Shared storage for sections with the same light level everywhere, indexed by that level. These arrays are never
+    // written to: every write path copies into a private array first when the nibble is not dirty, and a dirty nibble
+    // never has shared updating storage.
+    private static final byte[][] UNIFORM_BYTES = new byte[16][];
+    static {
+        for (int i = 0; i < UNIFORM_BYTES.length; ++i) {
+            final byte[] bytes = UNIFORM_BYTES[i] = new byte[ARRAY_SIZE];
+            Arrays.fill(bytes, (byte)(i | (i << 4)));
+        }
+    }
+
+    // the returned array must not be modified
+    public static byte[] getUniformBytes(final int level) {
+        return UNIFORM_BYTES[level];
+    }
+
+    // returns the light level if the data is one of the shared uniform arrays, -1 otherwise
+    public static int getSharedUniformLevel(final byte[] data) {
+        if (data == null) {
+            return -1;
+        }
+        final int level = data[0] & 0xF;
+        return UNIFORM_BYTES[level] == data ? level : -1;
+    }
+
+    protected static boolean isShared(final byte[] data) {
+        return getSharedUniformLevel(data) != -1;
+    }
+
+    // returns the shared array with the same contents, or null if the data is not uniform
+    protected static byte[] findUniform(final byte[] data) {
+        final byte first = data[0];
+        if ((first & 0xF) != ((first >>> 4) & 0xF)) {
+            return null;
+        }
+        for (int i = 1; i < ARRAY_SIZE; ++i) {
+            if (data[i] != first) {
+                return null;
+            }
+        }
+        return UNIFORM_BYTES[first & 0xF];
     }
 
     public static SWMRNibbleArray fromVanilla(final DataLayer nibble) {
@@ -56,6 +136,19 @@ public final class SWMRNibbleArray {
     protected boolean updatingDirty; // only returns whether storageUpdating is dirty
     protected volatile byte[] storageVisible;
 
+    // generations are drawn from one global counter, so a nibble which replaces another one (i.e when a chunk is lit or
+    // relit, or loaded again) always has a later generation than the nibble it replaces
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    // set to a new generation whenever updateVisible publishes a change to the state or data, written under this. it is
+    // also the light version of the section, see StarLightInterface#getLightVersion. a nibble is dirty since save when its
+    // visible generation was not marked as saved. nibbles start out clean, as they are either loaded from the save or
+    // only become non-empty through updateVisible
+    protected volatile long visibleGeneration;
+    protected long savedGeneration;
+    // save state of the visible generation, reused until the nibble changes
+    protected SaveState cachedSaveState;
+
     public SWMRNibbleArray() {
         this(null, false); // lazy init
     }
@@ -70,6 +163,7 @@ public final class SWMRNibbleArray {
         }
         this.stateVisible = this.stateUpdating = bytes == null ? (isNullNibble ? INIT_STATE_NULL : INIT_STATE_UNINIT) : INIT_STATE_INIT;
         this.storageUpdating = this.storageVisible = bytes;
+        this.visibleGeneration = this.savedGeneration = GENERATION.incrementAndGet();
     }
 
     public SWMRNibbleArray(final byte[] bytes, final int state) {
@@ -81,6 +175,7 @@ public final class SWMRNibbleArray {
         }
         this.stateUpdating = this.stateVisible = state;
         this.storageUpdating = this.storageVisible = bytes;
+        this.visibleGeneration = this.savedGeneration = GENERATION.incrementAndGet();
     }
 
     @Override
@@ -130,23 +225,51 @@ public final class SWMRNibbleArray {
 
     public SaveState getSaveState() {
         synchronized (this) {
+            final SaveState cached = this.cachedSaveState;
+            if (cached != null && cached.generation == this.visibleGeneration) {
+                return cached;
+            }
+
             final int state = this.stateVisible;
             final byte[] data = this.storageVisible;
             if (state == INIT_STATE_NULL) {
                 return null;
             }
             if (state == INIT_STATE_UNINIT) {
-                return new SaveState(null, state);
+                return new SaveState(null, state, this.visibleGeneration);
             }
-            final boolean zero = isAllZero(data);
+            final int sharedLevel = getSharedUniformLevel(data);
+            final boolean zero = sharedLevel == -1 ? isAllZero(data) : sharedLevel == 0;
             if (zero) {
-                return state == INIT_STATE_INIT ? new SaveState(null, INIT_STATE_UNINIT) : null;
+                return state == INIT_STATE_INIT ? new SaveState(null, INIT_STATE_UNINIT, this.visibleGeneration) : null;
             } else {
-                return new SaveState(data.clone(), state);
+                // shared data is immutable, so it does not need to be copied
+                return this.cachedSaveState = new SaveState(sharedLevel == -1 ? data.clone() : data, state, this.visibleGeneration);
+            }
+        }
+    }
+
+    public long getVisibleGeneration() {
+        return this.visibleGeneration;
+    }
+
+    // records that the given visible generation was written to a save
+    public void markSaved(final long generation) {
+        synchronized (this) {
+            // a later generation may have been marked by a concurrent save already
+            if (generation > this.savedGeneration) {
+                this.savedGeneration = generation;
             }
         }
     }
 
+    // returns whether the visible data changed since it was last marked as saved
+    public boolean isDirtySinceSave() {
+        synchronized (this) {
+            return this.visibleGeneration != this.savedGeneration;
+        }
+    }
+
     protected static boolean isAllZero(final byte[] data) {
         for (int i = 0; i < (ARRAY_SIZE >>> 4); ++i) {
             byte whole = data[i << 4];
@@ -175,6 +298,16 @@ public final class SWMRNibbleArray {
         }
 
         final byte[] src = other.storageUpdating;
+        final int sharedLevel = getSharedUniformLevel(src);
+        if (sharedLevel != -1) {
+            // every layer is a copy of the uniform bottom layer
+            if (this.storageUpdating == null) {
+                this.stateUpdating = INIT_STATE_INIT;
+            }
+            this.setUniform(sharedLevel);
+            return;
+        }
+
         final byte[] into;
 
         if (!this.updatingDirty) {
@@ -203,8 +336,7 @@ public final class SWMRNibbleArray {
         if (this.stateUpdating != INIT_STATE_HIDDEN) {
             this.stateUpdating = INIT_STATE_INIT;
         }
-        Arrays.fill(this.storageUpdating == null || !this.updatingDirty ? this.storageUpdating = allocateBytes() : this.storageUpdating, (byte)-1);
-        this.updatingDirty = true;
+        this.setUniform(15);
     }
 
     // operation type: updating
@@ -212,8 +344,17 @@ public final class SWMRNibbleArray {
         if (this.stateUpdating != INIT_STATE_HIDDEN) {
             this.stateUpdating = INIT_STATE_INIT;
         }
-        Arrays.fill(this.storageUpdating == null || !this.updatingDirty ? this.storageUpdating = allocateBytes() : this.storageUpdating, (byte)0);
-        this.updatingDirty = true;
+        this.setUniform(0);
+    }
+
+    // operation type: updating
+    protected void setUniform(final int level) {
+        if (this.updatingDirty) {
+            freeBytes(this.storageUpdating);
+            this.updatingDirty = false;
+        }
+        // not marked as dirty, the next write will copy it. isDirty still sees the storage change
+        this.storageUpdating = UNIFORM_BYTES[level];
     }
 
     // operation type: updating
@@ -262,7 +403,7 @@ public final class SWMRNibbleArray {
 
     // operation type: updating
     public boolean isDirty() {
-        return this.stateUpdating != this.stateVisible || this.updatingDirty;
+        return this.stateUpdating != this.stateVisible || this.updatingDirty || this.storageUpdating != this.storageVisible;
     }
 
     // operation type: updating
@@ -331,24 +472,42 @@ public final class SWMRNibbleArray {
         }
 
         synchronized (this) {
+            final byte[] visible = this.storageVisible;
+            // the light is only considered changed if the data readers see is different, not just when it was written to
+            boolean changed = this.stateUpdating != this.stateVisible;
             if (this.stateUpdating == INIT_STATE_NULL || this.stateUpdating == INIT_STATE_UNINIT) {
                 this.storageVisible = null;
             } else {
-                if (this.storageVisible == null) {
-                    this.storageVisible = this.storageUpdating.clone();
-                } else {
-                    if (this.storageUpdating != this.storageVisible) {
-                        System.arraycopy(this.storageUpdating, 0, this.storageVisible, 0, ARRAY_SIZE);
+                final byte[] updating = this.storageUpdating;
+                // only a dirty buffer is private to the writer, the visible buffer may still be read
+                final boolean ownsUpdating = this.updatingDirty && updating != visible;
+                final byte[] shared = isShared(updating) ? updating : findUniform(updating);
+
+                if (shared != null) {
+                    // uniform sections (usually full sky light) publish the shared array instead of a copy
+                    changed |= visible != shared && (visible == null || !Arrays.equals(visible, shared));
+                    this.storageVisible = shared;
+                } else if (visible == null || isShared(visible)) {
+                    changed |= visible == null || !Arrays.equals(visible, updating);
+                    this.storageVisible = updating.clone();
+                } else if (updating != visible) {
+                    if (!Arrays.equals(visible, updating)) {
+                        changed = true;
+                        System.arraycopy(updating, 0, visible, 0, ARRAY_SIZE);
                     }
                 }
 
-                if (this.storageUpdating != this.storageVisible) {
-                    freeBytes(this.storageUpdating);
+                if (ownsUpdating) {
+                    freeBytes(updating);
                 }
                 this.storageUpdating = this.storageVisible;
             }
             this.updatingDirty = false;
             this.stateVisible = this.stateUpdating;
+            if (changed) {
+                this.visibleGeneration = GENERATION.incrementAndGet();
+                this.cachedSaveState = null;
+            }
         }
 
         return true;
@@ -431,10 +590,21 @@ public final class SWMRNibbleArray {
 
         public final byte[] data;
         public final int state;
+        // visible generation of the nibble this was created from
+        public final long generation;
+
+        // encoded form of data for the save format, set by SaveUtil. save states are reused while the nibble is
+        // unchanged, so this avoids encoding the same data again
+        public volatile Object encoded;
 
         public SaveState(final byte[] data, final int state) {
+            this(data, state, 0);
+        }
+
+        public SaveState(final byte[] data, final int state, final long generation) {
             this.data = data;
             this.state = state;
+            this.generation = generation;
         }
     }
 }
@@ -1,14 +1,19 @@
 package ca.spottedleaf.starlight.common.light;
 
 import ca.spottedleaf.starlight.common.blockstate.ExtendedAbstractBlockState;
+import ca.spottedleaf.starlight.common.blockstate.LightProperties;
 import ca.spottedleaf.starlight.common.chunk.ExtendedChunk;
+import ca.spottedleaf.starlight.common.util.CoordinateUtils;
 import ca.spottedleaf.starlight.common.util.WorldUtil;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.shorts.ShortCollection;
 import it.unimi.dsi.fastutil.shorts.ShortIterator;
 import net.minecraft.core.BlockPos;
 import net.minecraft.world.level.BlockGetter;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.LevelHeightAccessor;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.ChunkStatus;
@@ -17,7 +22,6 @@ import net.minecraft.world.level.chunk.LightChunkGetter;
 import net.minecraft.world.phys.shapes.Shapes;
 import net.minecraft.world.phys.shapes.VoxelShape;
 import java.util.Arrays;
-import java.util.Set;
 
 public final class SkyStarLightEngine extends StarLightEngine {
 
@@ -53,7 +57,11 @@ public final class SkyStarLightEngine extends StarLightEngine {
     protected final boolean[] nullPropagationCheckCache;
 
     public SkyStarLightEngine(final Level world) {
-        super(true, world);
+        this(world, world.isClientSide);
+    }
+
+    public SkyStarLightEngine(final LevelHeightAccessor world, final boolean isClientSide) {
+        super(true, world, isClientSide);
         this.nullPropagationCheckCache = new boolean[WorldUtil.getTotalLightSections(world)];
     }
 
@@ -360,7 +368,7 @@ public final class SkyStarLightEngine extends StarLightEngine {
     }
 
     @Override
-    protected void propagateBlockChanges(final LightChunkGetter lightAccess, final ChunkAccess atChunk, final Set<BlockPos> positions) {
+    protected void propagateBlockChanges(final LightChunkGetter lightAccess, final ChunkAccess atChunk, final LongSet positions) {
         this.rewriteNibbleCacheForSkylight(atChunk);
         Arrays.fill(this.nullPropagationCheckCache, false);
 
@@ -370,11 +378,13 @@ public final class SkyStarLightEngine extends StarLightEngine {
         final int heightMapOffset = chunkX * -16 + (chunkZ * (-16 * 16));
 
         // setup heightmap for changes
-        for (final BlockPos pos : positions) {
-            final int index = pos.getX() + (pos.getZ() << 4) + heightMapOffset;
+        for (final LongIterator iterator = positions.iterator(); iterator.hasNext();) {
+            final long pos = iterator.nextLong();
+            final int index = CoordinateUtils.getBlockX(pos) + (CoordinateUtils.getBlockZ(pos) << 4) + heightMapOffset;
             final int curr = this.heightMapBlockChange[index];
-            if (pos.getY() > curr) {
-                this.heightMapBlockChange[index] = pos.getY();
+            final int posY = CoordinateUtils.getBlockY(pos);
+            if (posY > curr) {
+                this.heightMapBlockChange[index] = posY;
             }
         }
 
@@ -444,8 +454,9 @@ public final class SkyStarLightEngine extends StarLightEngine {
         this.processDelayedIncreases();
         this.processDelayedDecreases();
 
-        for (final BlockPos pos : positions) {
-            this.checkBlock(lightAccess, pos.getX(), pos.getY(), pos.getZ());
+        for (final LongIterator iterator = positions.iterator(); iterator.hasNext();) {
+            final long pos = iterator.nextLong();
+            this.checkBlock(lightAccess, CoordinateUtils.getBlockX(pos), CoordinateUtils.getBlockY(pos), CoordinateUtils.getBlockZ(pos));
         }
 
         this.performLightDecrease(lightAccess);
@@ -630,22 +641,19 @@ public final class SkyStarLightEngine extends StarLightEngine {
             }
             final BlockState current = this.getBlockState(worldX, startY, worldZ);
 
-            final VoxelShape fromShape;
-            if (((ExtendedAbstractBlockState)above).isConditionallyFullOpaque()) {
-                this.mutablePos2.set(worldX, startY + 1, worldZ);
-                fromShape = above.getFaceOcclusionShape(world, this.mutablePos2, AxisDirection.NEGATIVE_Y.nms);
-                if (Shapes.faceShapeOccludes(Shapes.empty(), fromShape)) {
-                    // above wont let us propagate
-                    break;
-                }
-            } else {
-                fromShape = Shapes.empty();
+            final int aboveProperties = ((ExtendedAbstractBlockState)above).getLightProperties();
+            this.mutablePos2.set(worldX, startY + 1, worldZ);
+            if ((aboveProperties & AxisDirection.NEGATIVE_Y.fullFaceFlag) != 0
+                    || ((aboveProperties & LightProperties.UNCACHED_MASK) == LightProperties.UNCACHED_MASK
+                        && Shapes.faceShapeOccludes(Shapes.empty(), above.getFaceOcclusionShape(world, this.mutablePos2, AxisDirection.NEGATIVE_Y.nms)))) {
+                // above wont let us propagate
+                break;
             }
 
-            final int opacityIfCached = ((ExtendedAbstractBlockState)current).getOpacityIfCached();
+            final int currentProperties = ((ExtendedAbstractBlockState)current).getLightProperties();
             // does light propagate from the top down?
-            if (opacityIfCached != -1) {
-                if (opacityIfCached != 0) {
+            if ((currentProperties & LightProperties.UNCACHED_MASK) == 0) {
+                if ((currentProperties & LightProperties.OPACITY_MASK) != 0) {
                     // we cannot propagate 15 through this
                     break;
                 }
@@ -660,17 +668,15 @@ public final class SkyStarLightEngine extends StarLightEngine {
             } else {
                 mutablePos.set(worldX, startY, worldZ);
                 long flags = 0L;
-                if (((ExtendedAbstractBlockState)current).isConditionallyFullOpaque()) {
-                    final VoxelShape cullingFace = current.getFaceOcclusionShape(world, mutablePos, AxisDirection.POSITIVE_Y.nms);
-
-                    if (Shapes.faceShapeOccludes(fromShape, cullingFace)) {
+                if ((currentProperties & LightProperties.CONDITIONALLY_FULL_OPAQUE) != 0) {
+                    if (isFaceOccluded(world, above, aboveProperties, this.mutablePos2, current, currentProperties, mutablePos, AxisDirection.NEGATIVE_Y)) {
                         // can't propagate here, we're done on this column.
                         break;
                     }
                     flags |= FLAG_HAS_SIDED_TRANSPARENT_BLOCKS;
                 }
 
-                final int opacity = current.getLightBlock(world, mutablePos);
+                final int opacity = (currentProperties & LightProperties.DYNAMIC_SHAPE) == 0 ? (currentProperties & LightProperties.OPACITY_MASK) : current.getLightBlock(world, mutablePos);
                 if (opacity > 0) {
                     // let the queued value (if any) handle it from here.
                     break;
@@ -1,25 +1,36 @@
 package ca.spottedleaf.starlight.common.light;
 
 import ca.spottedleaf.starlight.common.blockstate.ExtendedAbstractBlockState;
+import ca.spottedleaf.starlight.common.blockstate.FaceOcclusionCache;
+import ca.spottedleaf.starlight.common.blockstate.LightProperties;
+import ca.spottedleaf.starlight.common.jfr.CheckChunkEdgesEvent;
+import ca.spottedleaf.starlight.common.jfr.LightChunkEvent;
+import ca.spottedleaf.starlight.common.jfr.LightPropagationEvent;
+import ca.spottedleaf.starlight.common.jfr.RelightChunksEvent;
 import ca.spottedleaf.starlight.common.util.CoordinateUtils;
 import ca.spottedleaf.starlight.common.util.IntegerUtil;
 import ca.spottedleaf.starlight.common.util.WorldUtil;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.shorts.ShortCollection;
 import it.unimi.dsi.fastutil.shorts.ShortIterator;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
 import net.minecraft.core.SectionPos;
+import net.minecraft.util.BitStorage;
+import net.minecraft.util.ZeroBitStorage;
 import net.minecraft.world.level.BlockGetter;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.LevelHeightAccessor;
 import net.minecraft.world.level.LightLayer;
+import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.LevelChunkSection;
 import net.minecraft.world.level.chunk.LightChunkGetter;
+import net.minecraft.world.level.chunk.PalettedContainer;
 import net.minecraft.world.phys.shapes.Shapes;
 import net.minecraft.world.phys.shapes.VoxelShape;
 import java.util.ArrayList;
@@ -61,6 +72,7 @@ public abstract class StarLightEngine {
         public final Direction nms;
         public final long everythingButThisDirection;
         public final long everythingButTheOppositeDirection;
+        public final int fullFaceFlag;
 
         AxisDirection(final int x, final int y, final int z) {
             this.x = x;
@@ -70,6 +82,7 @@ public abstract class StarLightEngine {
             this.everythingButThisDirection = (long)(ALL_DIRECTIONS_BITSET ^ (1 << this.ordinal()));
             // positive is always even, negative is always odd. Flip the 1 bit to get the negative direction.
             this.everythingButTheOppositeDirection = (long)(ALL_DIRECTIONS_BITSET ^ (1 << (this.ordinal() ^ 1)));
+            this.fullFaceFlag = LightProperties.getFullFaceFlag(this.nms);
         }
 
         public AxisDirection getOpposite() {
@@ -89,6 +102,10 @@ public abstract class StarLightEngine {
     // null index indicates the chunk section doesn't exist (empty or out of bounds)
     protected final LevelChunkSection[] sectionCache;
 
+    // the block storage of each cached section and the light properties of its palette entries, see getLightProperties
+    protected final BitStorage[] sectionStorageCache;
+    protected final int[][] sectionPropertiesCache;
+
     // the exact same as above, except for storing fast access to SWMRNibbleArray
     // for the y chunk section it's from [minLightSection, maxLightSection] or [0, maxLightSection - minLightSection]
     // index = x + (z * 5) + (y * 25)
@@ -127,16 +144,24 @@ public abstract class StarLightEngine {
     protected final int emittedLightMask;
     protected final boolean isClientSide;
 
-    protected final Level world;
+    protected final LevelHeightAccessor world;
     protected final int minLightSection;
     protected final int maxLightSection;
     protected final int minSection;
     protected final int maxSection;
 
+    // set by the owning StarLightInterface, null for engines not driven by one
+    protected LightMetrics metrics;
+
     protected StarLightEngine(final boolean skylightPropagator, final Level world) {
+        this(skylightPropagator, world, world.isClientSide);
+    }
+
+    // does not require a Level, so that the engine may be driven outside of a running world (i.e benchmarks)
+    protected StarLightEngine(final boolean skylightPropagator, final LevelHeightAccessor world, final boolean isClientSide) {
         this.skylightPropagator = skylightPropagator;
         this.emittedLightMask = skylightPropagator ? 0 : 0xF;
-        this.isClientSide = world.isClientSide;
+        this.isClientSide = isClientSide;
         this.world = world;
         this.minLightSection = WorldUtil.getMinLightSection(world);
         this.maxLightSection = WorldUtil.getMaxLightSection(world);
@@ -144,6 +169,8 @@ public abstract class StarLightEngine {
         this.maxSection = WorldUtil.getMaxSection(world);
 
         this.sectionCache = new LevelChunkSection[5 * 5 * ((this.maxLightSection - this.minLightSection + 1) + 2)]; // add two extra sections for buffer
+        this.sectionStorageCache = new BitStorage[this.sectionCache.length];
+        this.sectionPropertiesCache = new int[this.sectionCache.length][];
         this.nibbleCache = new SWMRNibbleArray[5 * 5 * ((this.maxLightSection - this.minLightSection + 1) + 2)]; // add two extra sections for buffer
         this.notifyUpdateCache = new boolean[5 * 5 * ((this.maxLightSection - this.minLightSection + 1) + 2)]; // add two extra sections for buffer
     }
@@ -220,7 +247,9 @@ public abstract class StarLightEngine {
     }
 
     protected final void setChunkSectionInCache(final int chunkX, final int chunkY, final int chunkZ, final LevelChunkSection section) {
-        this.sectionCache[chunkX + 5*chunkZ + 5*5*chunkY + this.chunkSectionIndexOffset] = section;
+        final int index = chunkX + 5*chunkZ + 5*5*chunkY + this.chunkSectionIndexOffset;
+        this.sectionCache[index] = section;
+        this.sectionPropertiesCache[index] = null;
     }
 
     protected final void setBlocksForChunkInCache(final int chunkX, final int chunkZ, final LevelChunkSection[] sections) {
@@ -273,6 +302,8 @@ public abstract class StarLightEngine {
 
     protected final void destroyCaches() {
         Arrays.fill(this.sectionCache, null);
+        Arrays.fill(this.sectionStorageCache, null);
+        Arrays.fill(this.sectionPropertiesCache, null);
         Arrays.fill(this.nibbleCache, null);
         Arrays.fill(this.chunkCache, null);
         Arrays.fill(this.emptinessMapCache, null);
@@ -301,6 +332,49 @@ public abstract class StarLightEngine {
         return AIR_BLOCK_STATE;
     }
 
+    // missing sections are read as air
+    protected static final BitStorage AIR_SECTION_STORAGE = new ZeroBitStorage(16 * 16 * 16);
+    protected static final int[] AIR_SECTION_PROPERTIES = new int[] {
+            LightProperties.getById(Block.BLOCK_STATE_REGISTRY.getId(AIR_BLOCK_STATE))
+    };
+
+    // Returns the LightProperties of the block at the index, read from the palette id of the block: the properties of
+    // each palette entry are looked up in the table indexed by Block.BLOCK_STATE_REGISTRY id once per section and
+    // task, and sections using the global palette read the table directly. So, the propagation loops do not touch the
+    // BlockState unless its properties say that its shape must be checked.
+    // The storage and palette of a section are read once, so blocks set while the task runs may not be seen. That
+    // is fine, as every block change queues another task for its chunk.
+    protected final int getLightProperties(final int sectionIndex, final int localIndex) {
+        int[] properties = this.sectionPropertiesCache[sectionIndex];
+        if (properties == null) {
+            properties = this.initSectionProperties(sectionIndex);
+        }
+        final int paletteId = this.sectionStorageCache[sectionIndex].get(localIndex);
+        if (paletteId < properties.length) {
+            return properties[paletteId];
+        }
+        // added to the palette after it was read
+        final BlockState state = this.getBlockState(sectionIndex, localIndex);
+        return state == null ? 0 : ((ExtendedAbstractBlockState)state).getLightProperties();
+    }
+
+    protected final int[] initSectionProperties(final int sectionIndex) {
+        final LevelChunkSection section = this.sectionCache[sectionIndex];
+        final BitStorage storage;
+        final int[] properties;
+        if (section == null) {
+            storage = AIR_SECTION_STORAGE;
+            properties = AIR_SECTION_PROPERTIES;
+        } else {
+            // storage and palette must be from the same data, as the palette ids of a resized container differ
+            final PalettedContainer.Data<BlockState> data = section.states.data;
+            storage = data.storage();
+            properties = LightProperties.getPaletteProperties(data.palette());
+        }
+        this.sectionStorageCache[sectionIndex] = storage;
+        return this.sectionPropertiesCache[sectionIndex] = properties;
+    }
+
     protected final int getLightLevel(final int worldX, final int worldY, final int worldZ) {
         final SWMRNibbleArray nibble = this.nibbleCache[(worldX >> 4) + 5 * (worldZ >> 4) + (5 * 5) * (worldY >> 4) + this.chunkSectionIndexOffset];
 
@@ -410,13 +484,16 @@ public abstract class StarLightEngine {
 
     protected abstract boolean canUseChunk(final ChunkAccess chunk);
 
-    public final void blocksChangedInChunk(final LightChunkGetter lightAccess, final int chunkX, final int chunkZ,
-                                           final Set<BlockPos> positions, final Boolean[] changedSections) {
+    // returns false if the propagation ran past the propagation deadline and was paused, in which case it must be
+    // completed with resumePropagation before the engine is used for anything else
+    public final boolean blocksChangedInChunk(final LightChunkGetter lightAccess, final int chunkX, final int chunkZ,
+                                              final LongSet positions, final Boolean[] changedSections) {
+        this.propagationPaused = false;
         this.setupCaches(lightAccess, chunkX * 16 + 7, 128, chunkZ * 16 + 7, true, true);
         try {
             final ChunkAccess chunk = this.getChunkInCache(chunkX, chunkZ);
             if (chunk == null) {
-                return;
+                return true;
             }
             if (changedSections != null) {
                 final boolean[] ret = this.handleEmptySectionChanges(lightAccess, chunk, changedSections, false);
@@ -426,16 +503,23 @@ public abstract class StarLightEngine {
             }
             if (!positions.isEmpty()) {
                 this.propagateBlockChanges(lightAccess, chunk, positions);
+                if (this.propagationPaused) {
+                    return false;
+                }
             }
             this.updateVisible(lightAccess);
+            return true;
         } finally {
-            this.destroyCaches();
+            if (!this.propagationPaused) {
+                this.destroyCaches();
+            }
         }
     }
 
     // subclasses should not initialise caches, as this will always be done by the super call
     // subclasses should not invoke updateVisible, as this will always be done by the super call
-    protected abstract void propagateBlockChanges(final LightChunkGetter lightAccess, final ChunkAccess atChunk, final Set<BlockPos> positions);
+    // positions are encoded using CoordinateUtils#getBlockKey
+    protected abstract void propagateBlockChanges(final LightChunkGetter lightAccess, final ChunkAccess atChunk, final LongSet positions);
 
     protected abstract void checkBlock(final LightChunkGetter lightAccess, final int worldX, final int worldY, final int worldZ);
 
@@ -736,7 +820,6 @@ public abstract class StarLightEngine {
     // rets non-null when the emptiness map changed and needs to be updated
     protected final boolean[] handleEmptySectionChanges(final LightChunkGetter lightAccess, final ChunkAccess chunk,
                                                         final Boolean[] emptinessChanges, final boolean unlit) {
-        final Level world = (Level)lightAccess.getLevel();
         final int chunkX = chunk.getPos().x;
         final int chunkZ = chunk.getPos().z;
 
@@ -744,7 +827,7 @@ public abstract class StarLightEngine {
         boolean[] ret = null;
         final boolean needsInit = unlit || chunkEmptinessMap == null;
         if (needsInit) {
-            this.setEmptinessMapCache(chunkX, chunkZ, ret = chunkEmptinessMap = new boolean[WorldUtil.getTotalSections(world)]);
+            this.setEmptinessMapCache(chunkX, chunkZ, ret = chunkEmptinessMap = new boolean[this.maxSection - this.minSection + 1]);
         }
 
         // update emptiness map
@@ -852,6 +935,8 @@ public abstract class StarLightEngine {
     }
 
     public final void checkChunkEdges(final LightChunkGetter lightAccess, final int chunkX, final int chunkZ) {
+        final CheckChunkEdgesEvent event = new CheckChunkEdgesEvent();
+        event.begin();
         this.setupCaches(lightAccess, chunkX * 16 + 7, 128, chunkZ * 16 + 7, true, false);
         try {
             final ChunkAccess chunk = this.getChunkInCache(chunkX, chunkZ);
@@ -862,10 +947,13 @@ public abstract class StarLightEngine {
             this.updateVisible(lightAccess);
         } finally {
             this.destroyCaches();
+            this.commitCheckEdgesEvent(event, chunkX, chunkZ, this.maxLightSection - this.minLightSection + 1);
         }
     }
 
     public final void checkChunkEdges(final LightChunkGetter lightAccess, final int chunkX, final int chunkZ, final ShortCollection sections) {
+        final CheckChunkEdgesEvent event = new CheckChunkEdgesEvent();
+        event.begin();
         this.setupCaches(lightAccess, chunkX * 16 + 7, 128, chunkZ * 16 + 7, true, false);
         try {
             final ChunkAccess chunk = this.getChunkInCache(chunkX, chunkZ);
@@ -876,6 +964,35 @@ public abstract class StarLightEngine {
             this.updateVisible(lightAccess);
         } finally {
             this.destroyCaches();
+            this.commitCheckEdgesEvent(event, chunkX, chunkZ, sections.size());
+        }
+    }
+
+    protected final void commitCheckEdgesEvent(final CheckChunkEdgesEvent event, final int chunkX, final int chunkZ,
+                                               final int sections) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.chunkX = chunkX;
+            event.chunkZ = chunkZ;
+            event.skylight = this.skylightPropagator;
+            event.sections = sections;
+            event.commit();
+        }
+    }
+
+    protected final void lightChunkRecorded(final LightChunkGetter lightAccess, final ChunkAccess chunk, final boolean needsEdgeChecks,
+                                            final boolean relight) {
+        final LightChunkEvent event = new LightChunkEvent();
+        event.begin();
+        this.lightChunk(lightAccess, chunk, needsEdgeChecks);
+        event.end();
+        if (event.shouldCommit()) {
+            final ChunkPos pos = chunk.getPos();
+            event.chunkX = pos.x;
+            event.chunkZ = pos.z;
+            event.skylight = this.skylightPropagator;
+            event.relight = relight;
+            event.commit();
         }
     }
 
@@ -904,7 +1021,7 @@ public abstract class StarLightEngine {
             if (ret != null) {
                 this.setEmptinessMap(chunk, ret);
             }
-            this.lightChunk(lightAccess, chunk, true);
+            this.lightChunkRecorded(lightAccess, chunk, true, false);
             this.setNibbles(chunk, nibbles);
             this.updateVisible(lightAccess);
         } finally {
@@ -914,27 +1031,40 @@ public abstract class StarLightEngine {
 
     public final void relightChunks(final LightChunkGetter lightAccess, final Set<ChunkPos> chunks,
                                     final Consumer<ChunkPos> chunkLightCallback, final IntConsumer onComplete) {
+        final int lightCalls = this.relightChunks(lightAccess, chunks, new RelightState(this, lightAccess, chunks), chunkLightCallback);
+
+        if (onComplete != null) {
+            onComplete.accept(lightCalls);
+        }
+    }
+
+    protected static final int[] RELIGHT_NEIGHBOUR_ORDER = new int[] {
+            // d = 0
+            0, 0,
+            // d = 1
+            -1, 0,
+            0, -1,
+            1, 0,
+            0, 1,
+            // d = 2
+            -1, 1,
+            1, 1,
+            -1, -1,
+            1, -1,
+    };
+
+    // Relights the given chunks, which must be a subset of the chunks the state was created for. The state may be shared
+    // by several engines of this light type running at once, as long as the chunks they are given are more than
+    // 4 chunks apart: relighting a chunk only reads and writes chunks within 2 of it.
+    // returns the number of chunks of the state's set which were completed by this call
+    public final int relightChunks(final LightChunkGetter lightAccess, final Iterable<ChunkPos> chunks,
+                                   final RelightState state, final Consumer<ChunkPos> chunkLightCallback) {
+        final RelightChunksEvent event = new RelightChunksEvent();
+        event.begin();
+
         // it's recommended for maximum performance that the set is ordered according to a BFS from the center of
         // the region of chunks to relight
         // it's required that tickets are added for each chunk to keep them loaded
-        final Long2ObjectOpenHashMap<SWMRNibbleArray[]> nibblesByChunk = new Long2ObjectOpenHashMap<>();
-        final Long2ObjectOpenHashMap<boolean[]> emptinessMapByChunk = new Long2ObjectOpenHashMap<>();
-
-        final int[] neighbourLightOrder = new int[] {
-                // d = 0
-                0, 0,
-                // d = 1
-                -1, 0,
-                0, -1,
-                1, 0,
-                0, 1,
-                // d = 2
-                -1, 1,
-                1, 1,
-                -1, -1,
-                1, -1,
-        };
-
         int lightCalls = 0;
 
         for (final ChunkPos chunkPos : chunks) {
@@ -945,19 +1075,20 @@ public abstract class StarLightEngine {
                 throw new IllegalStateException();
             }
 
-            for (int i = 0, len = neighbourLightOrder.length; i < len; i += 2) {
-                final int dx = neighbourLightOrder[i];
-                final int dz = neighbourLightOrder[i + 1];
+            for (int i = 0, len = RELIGHT_NEIGHBOUR_ORDER.length; i < len; i += 2) {
+                final int dx = RELIGHT_NEIGHBOUR_ORDER[i];
+                final int dz = RELIGHT_NEIGHBOUR_ORDER[i + 1];
                 final int neighbourX = dx + chunkX;
                 final int neighbourZ = dz + chunkZ;
+                final long key = CoordinateUtils.getChunkKey(neighbourX, neighbourZ);
 
-                final ChunkAccess neighbour = (ChunkAccess)lightAccess.getChunkForLighting(neighbourX, neighbourZ);
-                if (neighbour == null || !this.canUseChunk(neighbour)) {
+                if (!state.needsLight(key)) {
+                    // lit already called for neighbour, or it can't be lit
                     continue;
                 }
 
-                if (nibblesByChunk.get(CoordinateUtils.getChunkKey(neighbourX, neighbourZ)) != null) {
-                    // lit already called for neighbour, no need to light it now
+                final ChunkAccess neighbour = (ChunkAccess)lightAccess.getChunkForLighting(neighbourX, neighbourZ);
+                if (neighbour == null || !this.canUseChunk(neighbour)) {
                     continue;
                 }
 
@@ -969,71 +1100,100 @@ public abstract class StarLightEngine {
                         for (int dx2 = -1; dx2 <= 1; ++dx2) {
                             final int neighbourX2 = neighbourX + dx2;
                             final int neighbourZ2 = neighbourZ + dz2;
-                            final long key = CoordinateUtils.getChunkKey(neighbourX2, neighbourZ2);
-                            final ChunkAccess neighbour2 = (ChunkAccess)lightAccess.getChunkForLighting(neighbourX2, neighbourZ2);
-                            if (neighbour2 == null || !this.canUseChunk(neighbour2)) {
-                                continue;
-                            }
+                            final long key2 = CoordinateUtils.getChunkKey(neighbourX2, neighbourZ2);
 
-                            final SWMRNibbleArray[] nibbles = nibblesByChunk.get(key);
+                            final SWMRNibbleArray[] nibbles = state.getNibbles(key2);
                             if (nibbles == null) {
                                 // we haven't lit this chunk
                                 continue;
                             }
 
+                            final ChunkAccess neighbour2 = (ChunkAccess)lightAccess.getChunkForLighting(neighbourX2, neighbourZ2);
+                            if (neighbour2 == null || !this.canUseChunk(neighbour2)) {
+                                continue;
+                            }
+
                             this.setChunkInCache(neighbourX2, neighbourZ2, neighbour2);
                             this.setBlocksForChunkInCache(neighbourX2, neighbourZ2, neighbour2.getSections());
                             this.setNibblesForChunkInCache(neighbourX2, neighbourZ2, nibbles);
-                            this.setEmptinessMapCache(neighbourX2, neighbourZ2, emptinessMapByChunk.get(key));
+                            this.setEmptinessMapCache(neighbourX2, neighbourZ2, state.getEmptinessMap(key2));
                         }
                     }
 
-                    final long key = CoordinateUtils.getChunkKey(neighbourX, neighbourZ);
-
                     // now insert the neighbour chunk and light it
                     final SWMRNibbleArray[] nibbles = getFilledEmptyLight(this.world);
-                    nibblesByChunk.put(key, nibbles);
 
                     this.setChunkInCache(neighbourX, neighbourZ, neighbour);
                     this.setBlocksForChunkInCache(neighbourX, neighbourZ, neighbour.getSections());
                     this.setNibblesForChunkInCache(neighbourX, neighbourZ, nibbles);
 
                     final boolean[] neighbourEmptiness = this.handleEmptySectionChanges(lightAccess, neighbour, getEmptySectionsForChunk(neighbour), true);
-                    emptinessMapByChunk.put(key, neighbourEmptiness);
-                    if (chunks.contains(new ChunkPos(neighbourX, neighbourZ))) {
+                    state.startLighting(key, nibbles, neighbourEmptiness);
+                    if (state.chunks.contains(new ChunkPos(neighbourX, neighbourZ))) {
                         this.setEmptinessMap(neighbour, neighbourEmptiness);
                     }
 
-                    this.lightChunk(lightAccess, neighbour, false);
+                    this.lightChunkRecorded(lightAccess, neighbour, false, true);
                 } finally {
                     this.destroyCaches();
                 }
-            }
 
-            // done lighting all neighbours, so the chunk is now fully lit
+                // every chunk whose neighbourhood is now fully lit will not be read or written again
+                for (final long completed : state.finishLighting(neighbourX, neighbourZ)) {
+                    if (this.completeRelight(lightAccess, state, completed, chunkLightCallback)) {
+                        ++lightCalls;
+                    }
+                }
+            }
 
-            // make sure nibbles are fully updated before calling back
-            final SWMRNibbleArray[] nibbles = nibblesByChunk.get(CoordinateUtils.getChunkKey(chunkX, chunkZ));
-            for (final SWMRNibbleArray nibble : nibbles) {
-                nibble.updateVisible();
+            // done lighting all neighbours, so the chunk is now fully lit. it is normally completed by the last
+            // neighbour lit above, unless a neighbour stopped being usable after the state was created
+            final long key = CoordinateUtils.getChunkKey(chunkX, chunkZ);
+            if (state.tryComplete(key) && this.completeRelight(lightAccess, state, key, chunkLightCallback)) {
+                ++lightCalls;
             }
+        }
 
-            this.setNibbles(chunk, nibbles);
+        event.end();
+        if (event.shouldCommit()) {
+            event.skylight = this.skylightPropagator;
+            event.requestedChunks = state.chunks.size();
+            event.relitChunks = lightCalls;
+            event.commit();
+        }
 
-            for (int y = this.minLightSection; y <= this.maxLightSection; ++y) {
-                lightAccess.onLightUpdate(this.skylightPropagator ? LightLayer.SKY : LightLayer.BLOCK, SectionPos.of(chunkX, y, chunkX));
-            }
+        return lightCalls;
+    }
 
-            // now do callback
-            if (chunkLightCallback != null) {
-                chunkLightCallback.accept(chunkPos);
-            }
-            ++lightCalls;
+    // returns whether the chunk is part of the relight set
+    protected final boolean completeRelight(final LightChunkGetter lightAccess, final RelightState state, final long chunkKey,
+                                            final Consumer<ChunkPos> chunkLightCallback) {
+        final SWMRNibbleArray[] nibbles = state.release(chunkKey);
+        final ChunkPos chunkPos = new ChunkPos(CoordinateUtils.getChunkX(chunkKey), CoordinateUtils.getChunkZ(chunkKey));
+        if (nibbles == null || !state.chunks.contains(chunkPos)) {
+            // only lit to provide light to the set
+            return false;
         }
 
-        if (onComplete != null) {
-            onComplete.accept(lightCalls);
+        final ChunkAccess chunk = (ChunkAccess)lightAccess.getChunkForLighting(chunkPos.x, chunkPos.z);
+
+        // make sure nibbles are fully updated before calling back
+        for (final SWMRNibbleArray nibble : nibbles) {
+            nibble.updateVisible();
+        }
+
+        this.setNibbles(chunk, nibbles);
+
+        for (int y = this.minLightSection; y <= this.maxLightSection; ++y) {
+            lightAccess.onLightUpdate(this.skylightPropagator ? LightLayer.SKY : LightLayer.BLOCK, SectionPos.of(chunkPos.x, y, chunkPos.z));
+        }
+
+        // now do callback
+        if (chunkLightCallback != null) {
+            chunkLightCallback.accept(chunkPos);
         }
+
+        return true;
     }
 
     // contains:
@@ -1057,6 +1217,69 @@ public abstract class StarLightEngine {
     protected long[] decreaseQueue = new long[16 * 16 * 16];
     protected int decreaseQueueInitialLength;
 
+    // Block change propagation can be paused once it runs past a deadline, so that a single huge change does not hold
+    // the light executor for seconds. When paused, the remaining increase and decrease queues and the caches are kept
+    // as they are, and resumePropagation continues exactly where the propagation stopped. The light written so far is
+    // only in the updating storage of the nibbles, so readers keep seeing the light from before the change until the
+    // propagation completes. Nothing else may use the engine or write the light of its chunks until then.
+    // The deadline is only set by the queue drain around block changes: chunk lighting, edge checks and relighting
+    // always run to completion.
+    protected static final int DEADLINE_CHECK_INTERVAL = 1 << 12; // queue entries between deadline checks, power of two
+    protected boolean hasPropagationDeadline;
+    // System#nanoTime
+    protected long propagationDeadline;
+    protected boolean propagationPaused;
+
+    public final void setPropagationDeadline(final long deadline) {
+        this.hasPropagationDeadline = true;
+        this.propagationDeadline = deadline;
+    }
+
+    public final void clearPropagationDeadline() {
+        this.hasPropagationDeadline = false;
+    }
+
+    public final boolean isPropagationPaused() {
+        return this.propagationPaused;
+    }
+
+    protected final boolean isPastPropagationDeadline() {
+        return this.hasPropagationDeadline && System.nanoTime() - this.propagationDeadline >= 0L;
+    }
+
+    /**
+     * Continues the block change propagation which was paused by {@link #blocksChangedInChunk}. If the propagation
+     * completes, the visible light is updated and the caches are destroyed, just as if it had never been paused.
+     * @return {@code true} if the propagation completed, {@code false} if it was paused again
+     */
+    public final boolean resumePropagation(final LightChunkGetter lightAccess) {
+        if (!this.propagationPaused) {
+            throw new IllegalStateException("No propagation is paused");
+        }
+        this.propagationPaused = false;
+        // blocks may have been set while paused, so the palettes are read again
+        Arrays.fill(this.sectionPropertiesCache, null);
+        try {
+            if (this.decreaseQueueInitialLength != 0) {
+                // continues into the increase
+                this.performLightDecrease(lightAccess);
+            } else {
+                this.performLightIncrease(lightAccess);
+            }
+            if (this.propagationPaused) {
+                return false;
+            }
+            this.updateVisible(lightAccess);
+            return true;
+        } finally {
+            if (!this.propagationPaused) {
+                this.increaseQueueInitialLength = 0;
+                this.decreaseQueueInitialLength = 0;
+                this.destroyCaches();
+            }
+        }
+    }
+
     protected final long[] resizeIncreaseQueue() {
         return this.increaseQueue = Arrays.copyOf(this.increaseQueue, this.increaseQueue.length * 2);
     }
@@ -1099,11 +1322,44 @@ public abstract class StarLightEngine {
         }
     }
 
+    // returns whether the face of the from state in the specified direction and the opposing face of the to state
+    // occlude each other, i.e whether light cannot move from the from state to the to state
+    protected static boolean isFaceOccluded(final BlockGetter world,
+                                            final BlockState fromState, final int fromProperties, final BlockPos fromPos,
+                                            final BlockState toState, final int toProperties, final BlockPos toPos,
+                                            final AxisDirection direction) {
+        final boolean fromConditional = (fromProperties & LightProperties.CONDITIONALLY_FULL_OPAQUE) != 0;
+        final boolean toConditional = (toProperties & LightProperties.CONDITIONALLY_FULL_OPAQUE) != 0;
+        if (!fromConditional & !toConditional) {
+            // both faces are empty
+            return false;
+        }
+        if (((fromProperties & direction.fullFaceFlag) | (toProperties & direction.opposite.fullFaceFlag)) != 0) {
+            return true;
+        }
+
+        final boolean fromDynamic = fromConditional && (fromProperties & LightProperties.DYNAMIC_SHAPE) != 0;
+        final boolean toDynamic = toConditional && (toProperties & LightProperties.DYNAMIC_SHAPE) != 0;
+        if (!fromDynamic & !toDynamic) {
+            // both faces are known ahead of time, so use the memoized result
+            final int fromFace = fromConditional ? ((ExtendedAbstractBlockState)fromState).getLightFaceIds()[direction.nms.ordinal()] : FaceOcclusionCache.EMPTY_FACE_ID;
+            final int toFace = toConditional ? ((ExtendedAbstractBlockState)toState).getLightFaceIds()[direction.opposite.nms.ordinal()] : FaceOcclusionCache.EMPTY_FACE_ID;
+            return FaceOcclusionCache.occludes(fromFace, toFace);
+        }
+
+        final VoxelShape fromFace = fromConditional ? fromState.getFaceOcclusionShape(world, fromPos, direction.nms) : Shapes.empty();
+        final VoxelShape toFace = toConditional ? toState.getFaceOcclusionShape(world, toPos, direction.opposite.nms) : Shapes.empty();
+        return Shapes.faceShapeOccludes(fromFace, toFace);
+    }
+
     protected final void performLightIncrease(final LightChunkGetter lightAccess) {
+        final LightPropagationEvent event = new LightPropagationEvent();
+        event.begin();
         final BlockGetter world = lightAccess.getLevel();
         long[] queue = this.increaseQueue;
         int queueReadIndex = 0;
         int queueLength = this.increaseQueueInitialLength;
+        final int initialQueueLength = queueLength;
         this.increaseQueueInitialLength = 0;
         final int decodeOffsetX = -this.encodeOffsetX;
         final int decodeOffsetY = -this.encodeOffsetY;
@@ -1112,6 +1368,15 @@ public abstract class StarLightEngine {
         final int sectionOffset = this.chunkSectionIndexOffset;
 
         while (queueReadIndex < queueLength) {
+            if ((queueReadIndex & (DEADLINE_CHECK_INTERVAL - 1)) == 0 && queueReadIndex != 0 && this.isPastPropagationDeadline()) {
+                // keep the rest of the queue for resumePropagation
+                final int remaining = queueLength - queueReadIndex;
+                System.arraycopy(queue, queueReadIndex, queue, 0, remaining);
+                this.increaseQueueInitialLength = remaining;
+                this.propagationPaused = true;
+                this.commitPropagationEvent(event, true, initialQueueLength, queueReadIndex);
+                return;
+            }
             final long queueValue = queue[queueReadIndex++];
 
             final int posX = ((int)queueValue & 63) + decodeOffsetX;
@@ -1146,13 +1411,9 @@ public abstract class StarLightEngine {
                         continue; // already at the level we want or unloaded
                     }
 
-                    final BlockState blockState = this.getBlockState(sectionIndex, localIndex);
-                    if (blockState == null) {
-                        continue;
-                    }
-                    final int opacityCached = ((ExtendedAbstractBlockState)blockState).getOpacityIfCached();
-                    if (opacityCached != -1) {
-                        final int targetLevel = propagatedLightLevel - Math.max(1, opacityCached);
+                    final int properties = this.getLightProperties(sectionIndex, localIndex);
+                    if ((properties & LightProperties.UNCACHED_MASK) == 0) {
+                        final int targetLevel = propagatedLightLevel - Math.max(1, properties & LightProperties.OPACITY_MASK);
                         if (targetLevel > currentLevel) {
                             currentNibble.set(localIndex, targetLevel);
                             this.postLightUpdate(offX, offY, offZ);
@@ -1170,18 +1431,28 @@ public abstract class StarLightEngine {
                         }
                         continue;
                     } else {
+                        final BlockState blockState = this.getBlockState(sectionIndex, localIndex);
+                        if (blockState == null) {
+                            continue;
+                        }
                         this.mutablePos1.set(offX, offY, offZ);
                         long flags = 0;
-                        if (((ExtendedAbstractBlockState)blockState).isConditionallyFullOpaque()) {
-                            final VoxelShape cullingFace = blockState.getFaceOcclusionShape(world, this.mutablePos1, propagate.getOpposite().nms);
+                        if ((properties & LightProperties.CONDITIONALLY_FULL_OPAQUE) != 0) {
+                            if ((properties & LightProperties.DYNAMIC_SHAPE) == 0) {
+                                if ((properties & propagate.getOpposite().fullFaceFlag) != 0) {
+                                    continue;
+                                }
+                            } else {
+                                final VoxelShape cullingFace = blockState.getFaceOcclusionShape(world, this.mutablePos1, propagate.getOpposite().nms);
 
-                            if (Shapes.faceShapeOccludes(Shapes.empty(), cullingFace)) {
-                                continue;
+                                if (Shapes.faceShapeOccludes(Shapes.empty(), cullingFace)) {
+                                    continue;
+                                }
                             }
                             flags |= FLAG_HAS_SIDED_TRANSPARENT_BLOCKS;
                         }
 
-                        final int opacity = blockState.getLightBlock(world, this.mutablePos1);
+                        final int opacity = (properties & LightProperties.DYNAMIC_SHAPE) == 0 ? (properties & LightProperties.OPACITY_MASK) : blockState.getLightBlock(world, this.mutablePos1);
                         final int targetLevel = propagatedLightLevel - Math.max(1, opacity);
                         if (targetLevel <= currentLevel) {
                             continue;
@@ -1206,15 +1477,16 @@ public abstract class StarLightEngine {
             } else {
                 // we actually need to worry about our state here
                 final BlockState fromBlock = this.getBlockState(posX, posY, posZ);
+                final int fromProperties = ((ExtendedAbstractBlockState)fromBlock).getLightProperties();
                 this.mutablePos2.set(posX, posY, posZ);
                 for (final AxisDirection propagate : checkDirections) {
                     final int offX = posX + propagate.x;
                     final int offY = posY + propagate.y;
                     final int offZ = posZ + propagate.z;
 
-                    final VoxelShape fromShape = (((ExtendedAbstractBlockState)fromBlock).isConditionallyFullOpaque()) ? fromBlock.getFaceOcclusionShape(world, this.mutablePos2, propagate.nms) : Shapes.empty();
-
-                    if (fromShape != Shapes.empty() && Shapes.faceShapeOccludes(Shapes.empty(), fromShape)) {
+                    if ((fromProperties & propagate.fullFaceFlag) != 0
+                            || ((fromProperties & LightProperties.UNCACHED_MASK) == LightProperties.UNCACHED_MASK
+                                && Shapes.faceShapeOccludes(Shapes.empty(), fromBlock.getFaceOcclusionShape(world, this.mutablePos2, propagate.nms)))) {
                         continue;
                     }
 
@@ -1228,13 +1500,9 @@ public abstract class StarLightEngine {
                         continue; // already at the level we want
                     }
 
-                    final BlockState blockState = this.getBlockState(sectionIndex, localIndex);
-                    if (blockState == null) {
-                        continue;
-                    }
-                    final int opacityCached = ((ExtendedAbstractBlockState)blockState).getOpacityIfCached();
-                    if (opacityCached != -1) {
-                        final int targetLevel = propagatedLightLevel - Math.max(1, opacityCached);
+                    final int properties = this.getLightProperties(sectionIndex, localIndex);
+                    if ((properties & LightProperties.UNCACHED_MASK) == 0) {
+                        final int targetLevel = propagatedLightLevel - Math.max(1, properties & LightProperties.OPACITY_MASK);
                         if (targetLevel > currentLevel) {
                             currentNibble.set(localIndex, targetLevel);
                             this.postLightUpdate(offX, offY, offZ);
@@ -1252,18 +1520,20 @@ public abstract class StarLightEngine {
                         }
                         continue;
                     } else {
+                        final BlockState blockState = this.getBlockState(sectionIndex, localIndex);
+                        if (blockState == null) {
+                            continue;
+                        }
                         this.mutablePos1.set(offX, offY, offZ);
                         long flags = 0;
-                        if (((ExtendedAbstractBlockState)blockState).isConditionallyFullOpaque()) {
-                            final VoxelShape cullingFace = blockState.getFaceOcclusionShape(world, this.mutablePos1, propagate.getOpposite().nms);
-
-                            if (Shapes.faceShapeOccludes(fromShape, cullingFace)) {
+                        if ((properties & LightProperties.CONDITIONALLY_FULL_OPAQUE) != 0) {
+                            if (isFaceOccluded(world, fromBlock, fromProperties, this.mutablePos2, blockState, properties, this.mutablePos1, propagate)) {
                                 continue;
                             }
                             flags |= FLAG_HAS_SIDED_TRANSPARENT_BLOCKS;
                         }
 
-                        final int opacity = blockState.getLightBlock(world, this.mutablePos1);
+                        final int opacity = (properties & LightProperties.DYNAMIC_SHAPE) == 0 ? (properties & LightProperties.OPACITY_MASK) : blockState.getLightBlock(world, this.mutablePos1);
                         final int targetLevel = propagatedLightLevel - Math.max(1, opacity);
                         if (targetLevel <= currentLevel) {
                             continue;
@@ -1287,14 +1557,19 @@ public abstract class StarLightEngine {
                 }
             }
         }
+
+        this.commitPropagationEvent(event, true, initialQueueLength, queueLength);
     }
 
     protected final void performLightDecrease(final LightChunkGetter lightAccess) {
+        final LightPropagationEvent event = new LightPropagationEvent();
+        event.begin();
         final BlockGetter world = lightAccess.getLevel();
         long[] queue = this.decreaseQueue;
         long[] increaseQueue = this.increaseQueue;
         int queueReadIndex = 0;
         int queueLength = this.decreaseQueueInitialLength;
+        final int initialQueueLength = queueLength;
         this.decreaseQueueInitialLength = 0;
         int increaseQueueLength = this.increaseQueueInitialLength;
         final int decodeOffsetX = -this.encodeOffsetX;
@@ -1305,6 +1580,16 @@ public abstract class StarLightEngine {
         final int emittedMask = this.emittedLightMask;
 
         while (queueReadIndex < queueLength) {
+            if ((queueReadIndex & (DEADLINE_CHECK_INTERVAL - 1)) == 0 && queueReadIndex != 0 && this.isPastPropagationDeadline()) {
+                // keep the rest of the queue and the sources found so far for resumePropagation
+                final int remaining = queueLength - queueReadIndex;
+                System.arraycopy(queue, queueReadIndex, queue, 0, remaining);
+                this.decreaseQueueInitialLength = remaining;
+                this.increaseQueueInitialLength = increaseQueueLength;
+                this.propagationPaused = true;
+                this.commitPropagationEvent(event, false, initialQueueLength, queueReadIndex);
+                return;
+            }
             final long queueValue = queue[queueReadIndex++];
 
             final int posX = ((int)queueValue & 63) + decodeOffsetX;
@@ -1331,13 +1616,9 @@ public abstract class StarLightEngine {
                         continue;
                     }
 
-                    final BlockState blockState = this.getBlockState(sectionIndex, localIndex);
-                    if (blockState == null) {
-                        continue;
-                    }
-                    final int opacityCached = ((ExtendedAbstractBlockState)blockState).getOpacityIfCached();
-                    if (opacityCached != -1) {
-                        final int targetLevel = Math.max(0, propagatedLightLevel - Math.max(1, opacityCached));
+                    final int properties = this.getLightProperties(sectionIndex, localIndex);
+                    if ((properties & LightProperties.UNCACHED_MASK) == 0) {
+                        final int targetLevel = Math.max(0, propagatedLightLevel - Math.max(1, properties & LightProperties.OPACITY_MASK));
                         if (lightLevel > targetLevel) {
                             // it looks like another source propagated here, so re-propagate it
                             if (increaseQueueLength >= increaseQueue.length) {
@@ -1350,7 +1631,7 @@ public abstract class StarLightEngine {
                                             | FLAG_RECHECK_LEVEL;
                             continue;
                         }
-                        final int emittedLight = blockState.getLightEmission() & emittedMask;
+                        final int emittedLight = (properties >>> LightProperties.EMISSION_SHIFT) & emittedMask;
                         if (emittedLight != 0) {
                             // re-propagate source
                             // note: do not set recheck level, or else the propagation will fail
@@ -1361,7 +1642,7 @@ public abstract class StarLightEngine {
                                     ((offX + (offZ << 6) + (offY << 12) + encodeOffset) & ((1L << (6 + 6 + 16)) - 1))
                                             | ((emittedLight & 0xFL) << (6 + 6 + 16))
                                             | (((long)ALL_DIRECTIONS_BITSET) << (6 + 6 + 16 + 4))
-                                            | (((ExtendedAbstractBlockState)blockState).isConditionallyFullOpaque() ? (FLAG_WRITE_LEVEL | FLAG_HAS_SIDED_TRANSPARENT_BLOCKS) : FLAG_WRITE_LEVEL);
+                                            | ((properties & LightProperties.CONDITIONALLY_FULL_OPAQUE) != 0 ? (FLAG_WRITE_LEVEL | FLAG_HAS_SIDED_TRANSPARENT_BLOCKS) : FLAG_WRITE_LEVEL);
                         }
 
                         currentNibble.set(localIndex, 0);
@@ -1379,18 +1660,28 @@ public abstract class StarLightEngine {
                         }
                         continue;
                     } else {
+                        final BlockState blockState = this.getBlockState(sectionIndex, localIndex);
+                        if (blockState == null) {
+                            continue;
+                        }
                         this.mutablePos1.set(offX, offY, offZ);
                         long flags = 0;
-                        if (((ExtendedAbstractBlockState)blockState).isConditionallyFullOpaque()) {
-                            final VoxelShape cullingFace = blockState.getFaceOcclusionShape(world, this.mutablePos1, propagate.getOpposite().nms);
+                        if ((properties & LightProperties.CONDITIONALLY_FULL_OPAQUE) != 0) {
+                            if ((properties & LightProperties.DYNAMIC_SHAPE) == 0) {
+                                if ((properties & propagate.getOpposite().fullFaceFlag) != 0) {
+                                    continue;
+                                }
+                            } else {
+                                final VoxelShape cullingFace = blockState.getFaceOcclusionShape(world, this.mutablePos1, propagate.getOpposite().nms);
 
-                            if (Shapes.faceShapeOccludes(Shapes.empty(), cullingFace)) {
-                                continue;
+                                if (Shapes.faceShapeOccludes(Shapes.empty(), cullingFace)) {
+                                    continue;
+                                }
                             }
                             flags |= FLAG_HAS_SIDED_TRANSPARENT_BLOCKS;
                         }
 
-                        final int opacity = blockState.getLightBlock(world, this.mutablePos1);
+                        final int opacity = (properties & LightProperties.DYNAMIC_SHAPE) == 0 ? (properties & LightProperties.OPACITY_MASK) : blockState.getLightBlock(world, this.mutablePos1);
                         final int targetLevel = Math.max(0, propagatedLightLevel - Math.max(1, opacity));
                         if (lightLevel > targetLevel) {
                             // it looks like another source propagated here, so re-propagate it
@@ -1404,7 +1695,7 @@ public abstract class StarLightEngine {
                                             | (FLAG_RECHECK_LEVEL | flags);
                             continue;
                         }
-                        final int emittedLight = blockState.getLightEmission() & emittedMask;
+                        final int emittedLight = (properties >>> LightProperties.EMISSION_SHIFT) & emittedMask;
                         if (emittedLight != 0) {
                             // re-propagate source
                             // note: do not set recheck level, or else the propagation will fail
@@ -1437,6 +1728,7 @@ public abstract class StarLightEngine {
             } else {
                 // we actually need to worry about our state here
                 final BlockState fromBlock = this.getBlockState(posX, posY, posZ);
+                final int fromProperties = ((ExtendedAbstractBlockState)fromBlock).getLightProperties();
                 this.mutablePos2.set(posX, posY, posZ);
                 for (final AxisDirection propagate : checkDirections) {
                     final int offX = posX + propagate.x;
@@ -1446,9 +1738,9 @@ public abstract class StarLightEngine {
                     final int sectionIndex = (offX >> 4) + 5 * (offZ >> 4) + (5 * 5) * (offY >> 4) + sectionOffset;
                     final int localIndex = (offX & 15) | ((offZ & 15) << 4) | ((offY & 15) << 8);
 
-                    final VoxelShape fromShape = (((ExtendedAbstractBlockState)fromBlock).isConditionallyFullOpaque()) ? fromBlock.getFaceOcclusionShape(world, this.mutablePos2, propagate.nms) : Shapes.empty();
-
-                    if (fromShape != Shapes.empty() && Shapes.faceShapeOccludes(Shapes.empty(), fromShape)) {
+                    if ((fromProperties & propagate.fullFaceFlag) != 0
+                            || ((fromProperties & LightProperties.UNCACHED_MASK) == LightProperties.UNCACHED_MASK
+                                && Shapes.faceShapeOccludes(Shapes.empty(), fromBlock.getFaceOcclusionShape(world, this.mutablePos2, propagate.nms)))) {
                         continue;
                     }
 
@@ -1460,13 +1752,9 @@ public abstract class StarLightEngine {
                         continue;
                     }
 
-                    final BlockState blockState = this.getBlockState(sectionIndex, localIndex);
-                    if (blockState == null) {
-                        continue;
-                    }
-                    final int opacityCached = ((ExtendedAbstractBlockState)blockState).getOpacityIfCached();
-                    if (opacityCached != -1) {
-                        final int targetLevel = Math.max(0, propagatedLightLevel - Math.max(1, opacityCached));
+                    final int properties = this.getLightProperties(sectionIndex, localIndex);
+                    if ((properties & LightProperties.UNCACHED_MASK) == 0) {
+                        final int targetLevel = Math.max(0, propagatedLightLevel - Math.max(1, properties & LightProperties.OPACITY_MASK));
                         if (lightLevel > targetLevel) {
                             // it looks like another source propagated here, so re-propagate it
                             if (increaseQueueLength >= increaseQueue.length) {
@@ -1479,7 +1767,7 @@ public abstract class StarLightEngine {
                                             | FLAG_RECHECK_LEVEL;
                             continue;
                         }
-                        final int emittedLight = blockState.getLightEmission() & emittedMask;
+                        final int emittedLight = (properties >>> LightProperties.EMISSION_SHIFT) & emittedMask;
                         if (emittedLight != 0) {
                             // re-propagate source
                             // note: do not set recheck level, or else the propagation will fail
@@ -1490,7 +1778,7 @@ public abstract class StarLightEngine {
                                     ((offX + (offZ << 6) + (offY << 12) + encodeOffset) & ((1L << (6 + 6 + 16)) - 1))
                                             | ((emittedLight & 0xFL) << (6 + 6 + 16))
                                             | (((long)ALL_DIRECTIONS_BITSET) << (6 + 6 + 16 + 4))
-                                            | (((ExtendedAbstractBlockState)blockState).isConditionallyFullOpaque() ? (FLAG_WRITE_LEVEL | FLAG_HAS_SIDED_TRANSPARENT_BLOCKS) : FLAG_WRITE_LEVEL);
+                                            | ((properties & LightProperties.CONDITIONALLY_FULL_OPAQUE) != 0 ? (FLAG_WRITE_LEVEL | FLAG_HAS_SIDED_TRANSPARENT_BLOCKS) : FLAG_WRITE_LEVEL);
                         }
 
                         currentNibble.set(localIndex, 0);
@@ -1508,18 +1796,20 @@ public abstract class StarLightEngine {
                         }
                         continue;
                     } else {
+                        final BlockState blockState = this.getBlockState(sectionIndex, localIndex);
+                        if (blockState == null) {
+                            continue;
+                        }
                         this.mutablePos1.set(offX, offY, offZ);
                         long flags = 0;
-                        if (((ExtendedAbstractBlockState)blockState).isConditionallyFullOpaque()) {
-                            final VoxelShape cullingFace = blockState.getFaceOcclusionShape(world, this.mutablePos1, propagate.getOpposite().nms);
-
-                            if (Shapes.faceShapeOccludes(fromShape, cullingFace)) {
+                        if ((properties & LightProperties.CONDITIONALLY_FULL_OPAQUE) != 0) {
+                            if (isFaceOccluded(world, fromBlock, fromProperties, this.mutablePos2, blockState, properties, this.mutablePos1, propagate)) {
                                 continue;
                             }
                             flags |= FLAG_HAS_SIDED_TRANSPARENT_BLOCKS;
                         }
 
-                        final int opacity = blockState.getLightBlock(world, this.mutablePos1);
+                        final int opacity = (properties & LightProperties.DYNAMIC_SHAPE) == 0 ? (properties & LightProperties.OPACITY_MASK) : blockState.getLightBlock(world, this.mutablePos1);
                         final int targetLevel = Math.max(0, propagatedLightLevel - Math.max(1, opacity));
                         if (lightLevel > targetLevel) {
                             // it looks like another source propagated here, so re-propagate it
@@ -1533,7 +1823,7 @@ public abstract class StarLightEngine {
                                             | (FLAG_RECHECK_LEVEL | flags);
                             continue;
                         }
-                        final int emittedLight = blockState.getLightEmission() & emittedMask;
+                        final int emittedLight = (properties >>> LightProperties.EMISSION_SHIFT) & emittedMask;
                         if (emittedLight != 0) {
                             // re-propagate source
                             // note: do not set recheck level, or else the propagation will fail
@@ -1566,8 +1856,25 @@ public abstract class StarLightEngine {
             }
         }
 
+        this.commitPropagationEvent(event, false, initialQueueLength, queueLength);
+
         // propagate sources we clobbered
         this.increaseQueueInitialLength = increaseQueueLength;
         this.performLightIncrease(lightAccess);
     }
+
+    protected final void commitPropagationEvent(final LightPropagationEvent event, final boolean increase,
+                                                final int initialQueueLength, final int processedEntries) {
+        if (this.metrics != null) {
+            this.metrics.recordPropagation(increase, processedEntries);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.increase = increase;
+            event.skylight = this.skylightPropagator;
+            event.initialQueueLength = initialQueueLength;
+            event.processedEntries = processedEntries;
+            event.commit();
+        }
+    }
 }
@@ -1,32 +1,56 @@
 package ca.spottedleaf.starlight.common.light;
 
 import ca.spottedleaf.starlight.common.chunk.ExtendedChunk;
+import ca.spottedleaf.starlight.common.config.StarlightConfig;
+import ca.spottedleaf.starlight.common.jfr.ChunkTaskEvent;
+import ca.spottedleaf.starlight.common.jfr.PropagateChangesEvent;
 import ca.spottedleaf.starlight.common.util.CoordinateUtils;
+import ca.spottedleaf.starlight.common.util.IntegerUtil;
 import ca.spottedleaf.starlight.common.util.WorldUtil;
 import ca.spottedleaf.starlight.common.world.ExtendedWorld;
+import it.unimi.dsi.fastutil.HashCommon;
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.ObjectHeapPriorityQueue;
 import it.unimi.dsi.fastutil.shorts.ShortCollection;
 import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
-import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.SectionPos;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.TicketType;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.LightLayer;
 import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.ChunkStatus;
 import net.minecraft.world.level.chunk.DataLayer;
+import net.minecraft.world.level.chunk.EmptyLevelChunk;
+import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.level.chunk.LightChunkGetter;
 import net.minecraft.world.level.lighting.LayerLightEventListener;
 import net.minecraft.world.level.lighting.LevelLightEngine;
+import java.lang.ref.WeakReference;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.IntConsumer;
+import java.util.function.LongToIntFunction;
 
 public final class StarLightInterface {
 
@@ -42,6 +66,7 @@ public final class StarLightInterface {
     protected final ArrayDeque<BlockStarLightEngine> cachedBlockPropagators;
 
     protected final LightQueue lightQueue = new LightQueue(this);
+    protected final LightMetrics metrics = new LightMetrics(this);
 
     protected final LayerLightEventListener skyReader;
     protected final LayerLightEventListener blockReader;
@@ -57,6 +82,14 @@ public final class StarLightInterface {
     private final boolean hasBlockLight;
     private final boolean hasSkyLight;
 
+    // chunk keys of every player in the world, updated once per tick by the server world
+    protected volatile long[] playerChunkPositions = new long[0];
+
+    // two way set associative by section position, entries are allocated on first use. null if the cache is disabled
+    protected final CombinedLightSection[] combinedLightCache;
+    // per set, the way which was used last and is not evicted next. racy, as a wrong guess only evicts the other way
+    protected final byte[] combinedLightCacheRecent;
+
     public StarLightInterface(final LightChunkGetter lightAccess, final boolean hasSkyLight, final boolean hasBlockLight, final LevelLightEngine lightEngine) {
         this.lightAccess = lightAccess;
         this.world = lightAccess == null ? null : (Level)lightAccess.getLevel();
@@ -75,8 +108,14 @@ public final class StarLightInterface {
             this.maxLightSection = WorldUtil.getMaxLightSection(this.world);
         }
         this.lightEngine = lightEngine;
+        if (!this.isClientSide && StarlightConfig.PRIORITY_SCHEDULING) {
+            this.lightQueue.setPriorityFunction(this::getPlayerDistancePriority);
+        }
         this.hasBlockLight = hasBlockLight;
         this.hasSkyLight = hasSkyLight;
+        this.combinedLightCache = StarlightConfig.COMBINED_LIGHT_CACHE && hasSkyLight && hasBlockLight
+                ? new CombinedLightSection[IntegerUtil.roundCeilLog2(Math.max(2, StarlightConfig.COMBINED_LIGHT_CACHE_SECTIONS))] : null;
+        this.combinedLightCacheRecent = this.combinedLightCache == null ? null : new byte[this.combinedLightCache.length >>> 1];
         this.skyReader = !hasSkyLight ? LayerLightEventListener.DummyLightLayerEventListener.INSTANCE : new LayerLightEventListener() {
             @Override
             public void checkBlock(final BlockPos blockPos) {
@@ -126,7 +165,7 @@ public final class StarLightInterface {
 
             @Override
             public int getLightValue(final BlockPos blockPos) {
-                return StarLightInterface.this.getSkyLightValue(blockPos, StarLightInterface.this.getAnyChunkNow(blockPos.getX() >> 4, blockPos.getZ() >> 4));
+                return StarLightInterface.this.getSkyLightValue(blockPos, StarLightInterface.this.getChunkForLightRead(blockPos.getX() >> 4, blockPos.getZ() >> 4));
             }
 
             @Override
@@ -174,7 +213,7 @@ public final class StarLightInterface {
 
             @Override
             public int getLightValue(final BlockPos blockPos) {
-                return StarLightInterface.this.getBlockLightValue(blockPos, StarLightInterface.this.getAnyChunkNow(blockPos.getX() >> 4, blockPos.getZ() >> 4));
+                return StarLightInterface.this.getBlockLightValue(blockPos, StarLightInterface.this.getChunkForLightRead(blockPos.getX() >> 4, blockPos.getZ() >> 4));
             }
 
             @Override
@@ -284,8 +323,165 @@ public final class StarLightInterface {
         return nibble.getVisible(blockPos.getX(), y, blockPos.getZ());
     }
 
+    public static enum LightReadType {
+        SKY,
+        BLOCK,
+        // sky light in the upper 4 bits, block light in the lower 4 bits
+        COMBINED;
+    }
+
+    /**
+     * Fills {@code out} with the light of every position in the box from {@code (minX, minY, minZ)} to
+     * {@code (maxX, maxY, maxZ)} inclusive. The value for {@code (x, y, z)} is stored at index
+     * {@code (x - minX) + sizeX * ((z - minZ) + sizeZ * (y - minY))}. Values are the same as returned by
+     * {@link #getSkyLightValue(BlockPos, ChunkAccess)} and {@link #getBlockLightValue(BlockPos, ChunkAccess)}, but
+     * every chunk and section is only looked up once.
+     */
+    public void getLightValues(final int minX, final int minY, final int minZ, final int maxX, final int maxY, final int maxZ,
+                               final LightReadType type, final byte[] out) {
+        this.getLightValues(minX, minY, minZ, maxX, maxY, maxZ, type, out, null);
+    }
+
+    /**
+     * @see #getLightValues(int, int, int, int, int, int, LightReadType, byte[])
+     */
+    public void getLightValues(final int minX, final int minY, final int minZ, final int maxX, final int maxY, final int maxZ,
+                               final LightReadType type, final int[] out) {
+        this.getLightValues(minX, minY, minZ, maxX, maxY, maxZ, type, null, out);
+    }
+
+    protected final void getLightValues(final int minX, final int minY, final int minZ, final int maxX, final int maxY, final int maxZ,
+                                        final LightReadType type, final byte[] bytesOut, final int[] intsOut) {
+        final int sizeX = maxX - minX + 1;
+        final int sizeY = maxY - minY + 1;
+        final int sizeZ = maxZ - minZ + 1;
+        if (sizeX <= 0 || sizeY <= 0 || sizeZ <= 0) {
+            throw new IllegalArgumentException("Invalid box: (" + minX + "," + minY + "," + minZ + ") -> (" + maxX + "," + maxY + "," + maxZ + ")");
+        }
+        final long volume = (long)sizeX * (long)sizeY * (long)sizeZ;
+        final int outLength = bytesOut != null ? bytesOut.length : intsOut.length;
+        if (volume > (long)outLength) {
+            throw new IllegalArgumentException("Output of length " + outLength + " is too small for " + volume + " positions");
+        }
+
+        final boolean readSky = type != LightReadType.BLOCK;
+        final boolean readBlock = type != LightReadType.SKY;
+        final int skyShift = type == LightReadType.COMBINED ? 4 : 0;
+
+        final byte[] zero = SWMRNibbleArray.getUniformBytes(0);
+        final byte[] full = SWMRNibbleArray.getUniformBytes(15);
+
+        final int minSection = this.minSection;
+        final int maxSection = this.maxSection;
+        final int minLightSection = this.minLightSection;
+        final int maxLightSection = this.maxLightSection;
+
+        for (int chunkZ = minZ >> 4, maxChunkZ = maxZ >> 4; chunkZ <= maxChunkZ; ++chunkZ) {
+            for (int chunkX = minX >> 4, maxChunkX = maxX >> 4; chunkX <= maxChunkX; ++chunkX) {
+                final ChunkAccess chunk = this.getChunkForLightRead(chunkX, chunkZ);
+
+                final int fromX = Math.max(minX, chunkX << 4);
+                final int toX = Math.min(maxX, (chunkX << 4) | 15);
+                final int fromZ = Math.max(minZ, chunkZ << 4);
+                final int toZ = Math.min(maxZ, (chunkZ << 4) | 15);
+
+                // same checks as getSkyLightValue, resolved once for the chunk
+                SWMRNibbleArray[] skyNibbles = null;
+                int lowestY = Integer.MAX_VALUE;
+                if (readSky && this.hasSkyLight && chunk != null && (this.isClientSide || chunk.isLightCorrect())
+                        && chunk.getStatus().isOrAfter(ChunkStatus.LIGHT)) {
+                    skyNibbles = ((ExtendedChunk)chunk).getSkyNibbles();
+                    final boolean[] emptinessMap = ((ExtendedChunk)chunk).getSkyEmptinessMap();
+                    lowestY = minLightSection - 1;
+                    if (emptinessMap != null) {
+                        for (int currY = maxSection; currY >= minSection; --currY) {
+                            if (!emptinessMap[currY - minSection]) {
+                                lowestY = currY;
+                                break;
+                            }
+                        }
+                    }
+                }
+                final SWMRNibbleArray[] blockNibbles = readBlock && this.hasBlockLight && chunk != null ? ((ExtendedChunk)chunk).getBlockNibbles() : null;
+
+                for (int sectionY = minY >> 4, maxSectionY = maxY >> 4; sectionY <= maxSectionY; ++sectionY) {
+                    final int fromY = Math.max(minY, sectionY << 4);
+                    final int toY = Math.min(maxY, (sectionY << 4) | 15);
+
+                    byte[] skyData = this.hasSkyLight ? full : zero;
+                    // 0 when reading the bottom layer of the data for every y
+                    int skyYMask = 15;
+                    if (skyNibbles != null && sectionY <= maxLightSection) {
+                        int lightSectionY = sectionY;
+                        if (lightSectionY < minLightSection) {
+                            lightSectionY = minLightSection;
+                            skyYMask = 0;
+                        }
+                        final SWMRNibbleArray immediate = skyNibbles[lightSectionY - minLightSection];
+                        if (!immediate.isNullNibbleVisible()) {
+                            final byte[] visible = immediate.storageVisible;
+                            skyData = visible == null ? zero : visible;
+                        } else if (lightSectionY <= lowestY) {
+                            // depends solely on the first non-null data above
+                            skyYMask = 0;
+                            for (int currY = lightSectionY + 1; currY <= maxLightSection; ++currY) {
+                                final SWMRNibbleArray nibble = skyNibbles[currY - minLightSection];
+                                if (!nibble.isNullNibbleVisible()) {
+                                    final byte[] visible = nibble.storageVisible;
+                                    skyData = visible == null ? zero : visible;
+                                    break;
+                                }
+                            }
+                        }
+                    }
+
+                    byte[] blockData = zero;
+                    if (blockNibbles != null && sectionY >= minLightSection && sectionY <= maxLightSection) {
+                        final byte[] visible = blockNibbles[sectionY - minLightSection].storageVisible;
+                        if (visible != null) {
+                            blockData = visible;
+                        }
+                    }
+
+                    for (int y = fromY; y <= toY; ++y) {
+                        for (int z = fromZ; z <= toZ; ++z) {
+                            int outIndex = (fromX - minX) + sizeX * ((z - minZ) + sizeZ * (y - minY));
+                            final int skyRow = ((y & skyYMask) << 8) | ((z & 15) << 4);
+                            final int blockRow = ((y & 15) << 8) | ((z & 15) << 4);
+                            for (int x = fromX; x <= toX; ++x, ++outIndex) {
+                                int value = 0;
+                                if (readSky) {
+                                    value = getNibble(skyData, skyRow | (x & 15)) << skyShift;
+                                }
+                                if (readBlock) {
+                                    value |= getNibble(blockData, blockRow | (x & 15));
+                                }
+                                if (bytesOut != null) {
+                                    bytesOut[outIndex] = (byte)value;
+                                } else {
+                                    intsOut[outIndex] = value;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int getNibble(final byte[] data, final int index) {
+        return (data[index >>> 1] >>> ((index & 1) << 2)) & 0xF;
+    }
+
     public int getRawBrightness(final BlockPos pos, final int ambientDarkness) {
-        final ChunkAccess chunk = this.getAnyChunkNow(pos.getX() >> 4, pos.getZ() >> 4);
+        final ChunkAccess chunk = this.getChunkForLightRead(pos.getX() >> 4, pos.getZ() >> 4);
+
+        if (this.combinedLightCache != null) {
+            final int combined = this.getCachedCombinedLight(pos, chunk);
+            if (combined != -1) {
+                return Math.max((combined >>> 4) - ambientDarkness, combined & 0xF);
+            }
+        }
 
         final int sky = this.getSkyLightValue(pos, chunk) - ambientDarkness;
         // Don't fetch the block light level if the skylight level is 15, since the value will never be higher.
@@ -296,6 +492,72 @@ public final class StarLightInterface {
         return Math.max(sky, block);
     }
 
+    /**
+     * Returns the sky light in the upper 4 bits and the block light in the lower 4 bits at the given position, the
+     * same values as {@link #getSkyLightValue(BlockPos, ChunkAccess)} and {@link #getBlockLightValue(BlockPos, ChunkAccess)}.
+     */
+    public int getCombinedLightValue(final BlockPos pos) {
+        final ChunkAccess chunk = this.getChunkForLightRead(pos.getX() >> 4, pos.getZ() >> 4);
+        if (this.combinedLightCache != null) {
+            final int combined = this.getCachedCombinedLight(pos, chunk);
+            if (combined != -1) {
+                return combined;
+            }
+        }
+        return (this.getSkyLightValue(pos, chunk) << 4) | this.getBlockLightValue(pos, chunk);
+    }
+
+    // returns -1 when the position needs the regular lookups, i.e for sky light derived from the sections above
+    protected final int getCachedCombinedLight(final BlockPos pos, final ChunkAccess chunk) {
+        if (chunk == null || chunk instanceof EmptyLevelChunk
+                || (!this.isClientSide && !chunk.isLightCorrect()) || !chunk.getStatus().isOrAfter(ChunkStatus.LIGHT)) {
+            return -1;
+        }
+
+        final int y = pos.getY();
+        final int index = (y >> 4) - this.minLightSection;
+        if (index < 0 || (y >> 4) > this.maxLightSection) {
+            return -1;
+        }
+
+        final SWMRNibbleArray sky = ((ExtendedChunk)chunk).getSkyNibbles()[index];
+        final SWMRNibbleArray block = ((ExtendedChunk)chunk).getBlockNibbles()[index];
+        if (sky.isNullNibbleVisible()) {
+            return -1;
+        }
+
+        final int nibbleIndex = (pos.getX() & 15) | ((pos.getZ() & 15) << 4) | ((y & 15) << 8);
+
+        final CombinedLightSection[] cache = this.combinedLightCache;
+        final byte[] recent = this.combinedLightCacheRecent;
+        final int set = (int)HashCommon.mix(CoordinateUtils.getChunkSectionKey(pos)) & (recent.length - 1);
+
+        for (int way = 0; way <= 1; ++way) {
+            final CombinedLightSection section = cache[(set << 1) | way];
+            final int ret = section == null ? -1 : section.get(sky, block, nibbleIndex);
+            if (ret != -1) {
+                if (recent[set] != way) {
+                    recent[set] = (byte)way;
+                }
+                return ret;
+            }
+        }
+
+        // rebuild the way not used last in place, evicting the section it held
+        final int way = recent[set] ^ 1;
+        CombinedLightSection section = cache[(set << 1) | way];
+        if (section == null) {
+            // racing allocations only lose one of the sections, its fields are final so a plain store publishes it
+            cache[(set << 1) | way] = section = new CombinedLightSection();
+        }
+        if (!section.rebuild(sky, block)) {
+            // being rebuilt by another thread, or the light changed while building
+            return -1;
+        }
+        recent[set] = (byte)way;
+        return section.get(sky, block, nibbleIndex);
+    }
+
     public LayerLightEventListener getSkyReader() {
         return this.skyReader;
     }
@@ -316,8 +578,101 @@ public final class StarLightInterface {
         return ((ExtendedWorld)this.world).getAnyChunkImmediately(chunkX, chunkZ);
     }
 
+    // Light reads (entity ticking, random ticks, rendering) tend to hit the same few chunks many times in a row, so each
+    // thread remembers the last chunks it read from. Only full chunks are cached, as they stay the same object until
+    // they are unloaded, while lower statuses are replaced as the chunk generates. Nibble arrays are not cached, since
+    // relighting replaces them.
+    // The cache is shared by every world, and an entry is only used by the world of its chunk. Chunks are weakly
+    // referenced, so a thread which stops reading light does not keep the chunks (and so their world) alive.
+    private static final class ReadChunkCache {
+
+        // indexed by (chunkX & 1) | ((chunkZ & 1) << 1)
+        private final long[] keys = new long[4];
+        private final WeakReference<LevelChunk>[] chunks = new WeakReference[4];
+        // unload stamp of the chunk key when the chunk was looked up, see readChunkUnloadStamps
+        private final int[] stamps = new int[4];
+        private long worldUnloadEpoch;
+
+        private void clear(final long worldUnloadEpoch) {
+            Arrays.fill(this.chunks, null);
+            this.worldUnloadEpoch = worldUnloadEpoch;
+        }
+    }
+
+    private static final ThreadLocal<ReadChunkCache> READ_CHUNK_CACHE = ThreadLocal.withInitial(ReadChunkCache::new);
+    // incremented when a world is unloaded, which clears every ReadChunkCache on its next use
+    private static final AtomicLong READ_CHUNK_CACHE_WORLD_EPOCH = new AtomicLong();
+
+    protected static final int READ_CHUNK_UNLOAD_STAMPS = 1024; // must be a power of two
+    // incremented at the hash of a chunk key when the chunk is unloaded, so that only entries for that key (and the
+    // few keys with the same hash) are dropped from the read caches
+    protected final AtomicIntegerArray readChunkUnloadStamps = new AtomicIntegerArray(READ_CHUNK_UNLOAD_STAMPS);
+
+    protected static int getReadChunkUnloadStampIndex(final long chunkKey) {
+        return (int)HashCommon.mix(chunkKey) & (READ_CHUNK_UNLOAD_STAMPS - 1);
+    }
+
+    // called when the chunk at the position is unloaded or replaced
+    public void invalidateReadChunkCaches(final ChunkPos pos) {
+        this.readChunkUnloadStamps.getAndIncrement(getReadChunkUnloadStampIndex(CoordinateUtils.getChunkKey(pos)));
+    }
+
+    // called when any world is unloaded
+    public static void clearReadChunkCaches() {
+        READ_CHUNK_CACHE_WORLD_EPOCH.getAndIncrement();
+    }
+
+    protected final ChunkAccess getChunkForLightRead(final int chunkX, final int chunkZ) {
+        final ReadChunkCache cache = READ_CHUNK_CACHE.get();
+        final long worldEpoch = READ_CHUNK_CACHE_WORLD_EPOCH.get();
+        final long key = CoordinateUtils.getChunkKey(chunkX, chunkZ);
+        final int slot = (chunkX & 1) | ((chunkZ & 1) << 1);
+        // read before the lookup, so that a chunk unloaded during the lookup is not cached under the current stamp
+        final int stamp = this.readChunkUnloadStamps.get(getReadChunkUnloadStampIndex(key));
+
+        if (cache.worldUnloadEpoch != worldEpoch) {
+            cache.clear(worldEpoch);
+        } else if (cache.keys[slot] == key && cache.stamps[slot] == stamp) {
+            final WeakReference<LevelChunk> cachedRef = cache.chunks[slot];
+            final LevelChunk cached = cachedRef == null ? null : cachedRef.get();
+            if (cached != null && cached.getLevel() == this.world) {
+                return cached;
+            }
+        }
+
+        final ChunkAccess ret = this.getAnyChunkNow(chunkX, chunkZ);
+        if (ret instanceof LevelChunk && !(ret instanceof EmptyLevelChunk)) {
+            cache.keys[slot] = key;
+            cache.chunks[slot] = new WeakReference<>((LevelChunk)ret);
+            cache.stamps[slot] = stamp;
+        }
+        return ret;
+    }
+
     public boolean hasUpdates() {
-        return !this.lightQueue.isEmpty();
+        return this.pausedTask != null || !this.lightQueue.isEmpty();
+    }
+
+    /**
+     * Returns the version of the visible light of the given section, or {@code -1} if its chunk is not loaded or the
+     * section is outside of the light sections. The version increases whenever the visible light of the section
+     * changes, and stays the same otherwise. Versions are drawn from a global counter, so they also increase when the
+     * light of the section is replaced, i.e when the chunk is lit or relit, or unloaded and loaded again. Replacing the
+     * light may increase the version even if the visible light did not change.
+     */
+    public long getLightVersion(final LightLayer lightLayer, final SectionPos pos) {
+        final ChunkAccess chunk = this.getAnyChunkNow(pos.getX(), pos.getZ());
+        if (chunk == null) {
+            return -1L;
+        }
+
+        final SWMRNibbleArray[] nibbles = lightLayer == LightLayer.SKY ? ((ExtendedChunk)chunk).getSkyNibbles() : ((ExtendedChunk)chunk).getBlockNibbles();
+        final int index = pos.getY() - this.minLightSection;
+        if (nibbles == null || index < 0 || index >= nibbles.length || nibbles[index] == null) {
+            return -1L;
+        }
+
+        return nibbles[index].getVisibleGeneration();
     }
 
     public Level getWorld() {
@@ -328,18 +683,25 @@ public final class StarLightInterface {
         return this.lightAccess;
     }
 
+    public LightMetrics getMetrics() {
+        return this.metrics;
+    }
+
     protected final SkyStarLightEngine getSkyLightEngine() {
         if (this.cachedSkyPropagators == null) {
             return null;
         }
-        final SkyStarLightEngine ret;
+        final long start = System.nanoTime();
+        SkyStarLightEngine ret;
         synchronized (this.cachedSkyPropagators) {
             ret = this.cachedSkyPropagators.pollFirst();
         }
 
         if (ret == null) {
-            return new SkyStarLightEngine(this.world);
+            ret = new SkyStarLightEngine(this.world);
+            ret.metrics = this.metrics;
         }
+        this.metrics.recordEngineAcquire(System.nanoTime() - start);
         return ret;
     }
 
@@ -356,14 +718,17 @@ public final class StarLightInterface {
         if (this.cachedBlockPropagators == null) {
             return null;
         }
-        final BlockStarLightEngine ret;
+        final long start = System.nanoTime();
+        BlockStarLightEngine ret;
         synchronized (this.cachedBlockPropagators) {
             ret = this.cachedBlockPropagators.pollFirst();
         }
 
         if (ret == null) {
-            return new BlockStarLightEngine(this.world);
+            ret = new BlockStarLightEngine(this.world);
+            ret.metrics = this.metrics;
         }
+        this.metrics.recordEngineAcquire(System.nanoTime() - start);
         return ret;
     }
 
@@ -376,6 +741,23 @@ public final class StarLightInterface {
         }
     }
 
+    protected final void addPooledEngineStats(final LightMemoryStats stats) {
+        if (this.cachedSkyPropagators != null) {
+            synchronized (this.cachedSkyPropagators) {
+                for (final SkyStarLightEngine engine : this.cachedSkyPropagators) {
+                    stats.addPooledEngine(engine);
+                }
+            }
+        }
+        if (this.cachedBlockPropagators != null) {
+            synchronized (this.cachedBlockPropagators) {
+                for (final BlockStarLightEngine engine : this.cachedBlockPropagators) {
+                    stats.addPooledEngine(engine);
+                }
+            }
+        }
+    }
+
     public LightQueue.ChunkTasks blockChange(final BlockPos pos) {
         if (this.world == null || pos.getY() < WorldUtil.getMinBlockY(this.world) || pos.getY() > WorldUtil.getMaxBlockY(this.world)) { // empty world
             return null;
@@ -443,8 +825,20 @@ public final class StarLightInterface {
         }
     }
 
+    /**
+     * Relights the given chunks. On the server, when {@link StarlightConfig#PARALLEL_PROPAGATION_THREADS} is above 1,
+     * this runs on the parallel propagation pool, see {@link #relightChunksParallel}. The callbacks are then invoked on
+     * the pool threads, but never concurrently.
+     */
     public void relightChunks(final Set<ChunkPos> chunks, final Consumer<ChunkPos> chunkLightCallback,
                               final IntConsumer onComplete) {
+        // the relight writes the light of whole chunks, which must not happen in the middle of a paused propagation
+        this.finishPausedTask();
+        if (!this.isClientSide && StarlightConfig.PARALLEL_PROPAGATION_THREADS > 1) {
+            this.relightChunksParallel(chunks, chunkLightCallback, onComplete, null, getParallelPropagationPool());
+            return;
+        }
+
         final SkyStarLightEngine skyEngine = this.getSkyLightEngine();
         final BlockStarLightEngine blockEngine = this.getBlockLightEngine();
 
@@ -462,11 +856,144 @@ public final class StarLightInterface {
         }
     }
 
+    /**
+     * Same as {@link #relightChunks(Set, Consumer, IntConsumer)}, but the chunks are split into regions which are
+     * relit in parallel on the given pool. Light data for a chunk is released as soon as its neighbourhood is lit, rather
+     * than when the whole set is done. This call blocks until every chunk is relit.
+     * <p>
+     * The callbacks are never invoked concurrently. {@code progressCallback} is invoked each time a region finishes, and
+     * may be {@code null}.
+     * </p>
+     */
+    public void relightChunksParallel(final Set<ChunkPos> chunks, final Consumer<ChunkPos> chunkLightCallback,
+                                      final IntConsumer onComplete, final Consumer<RelightProgress> progressCallback,
+                                      final ForkJoinPool pool) {
+        this.finishPausedTask();
+        final long start = System.nanoTime();
+
+        final RelightState skyState;
+        final RelightState blockState;
+        final SkyStarLightEngine skyEngine = this.getSkyLightEngine();
+        final BlockStarLightEngine blockEngine = this.getBlockLightEngine();
+        try {
+            skyState = skyEngine == null ? null : new RelightState(skyEngine, this.lightAccess, chunks);
+            blockState = blockEngine == null ? null : new RelightState(blockEngine, this.lightAccess, chunks);
+        } finally {
+            this.releaseSkyLightEngine(skyEngine);
+            this.releaseBlockLightEngine(blockEngine);
+        }
+
+        // the same region size as the parallel queue drain works here, relighting a chunk only touches chunks within 2
+        final Long2ObjectLinkedOpenHashMap<List<ChunkPos>> chunksByRegion = new Long2ObjectLinkedOpenHashMap<>();
+        for (final ChunkPos pos : chunks) {
+            chunksByRegion.computeIfAbsent(CoordinateUtils.getChunkKey(pos.x >> PARALLEL_REGION_SHIFT, pos.z >> PARALLEL_REGION_SHIFT), (final long keyInMap) -> {
+                return new ArrayList<>();
+            }).add(pos);
+        }
+
+        final int totalChunks = chunks.size();
+        final int[] litChunks = new int[1];
+        final Object callbackLock = new Object();
+        final Consumer<ChunkPos> callback = (final ChunkPos pos) -> {
+            synchronized (callbackLock) {
+                ++litChunks[0];
+                if (chunkLightCallback != null) {
+                    chunkLightCallback.accept(pos);
+                }
+            }
+        };
+
+        runInParityPhases(pool, chunksByRegion, (final List<ChunkPos> regionChunks) -> {
+            final SkyStarLightEngine regionSkyEngine = this.getSkyLightEngine();
+            final BlockStarLightEngine regionBlockEngine = this.getBlockLightEngine();
+
+            try {
+                if (regionSkyEngine != null) {
+                    regionSkyEngine.relightChunks(this.lightAccess, regionChunks, skyState, regionBlockEngine == null ? callback : null);
+                }
+                if (regionBlockEngine != null) {
+                    regionBlockEngine.relightChunks(this.lightAccess, regionChunks, blockState, callback);
+                }
+            } finally {
+                this.releaseSkyLightEngine(regionSkyEngine);
+                this.releaseBlockLightEngine(regionBlockEngine);
+            }
+
+            if (progressCallback != null) {
+                synchronized (callbackLock) {
+                    progressCallback.accept(new RelightProgress(litChunks[0], totalChunks, System.nanoTime() - start));
+                }
+            }
+        });
+
+        if (onComplete != null) {
+            synchronized (callbackLock) {
+                onComplete.accept(litChunks[0]);
+            }
+        }
+    }
+
+    public static final class RelightProgress {
+
+        public final int litChunks;
+        public final int totalChunks;
+        public final long elapsedNanos;
+
+        public RelightProgress(final int litChunks, final int totalChunks, final long elapsedNanos) {
+            this.litChunks = litChunks;
+            this.totalChunks = totalChunks;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double getChunksPerSecond() {
+            return this.elapsedNanos <= 0L ? 0.0 : (double)this.litChunks * 1.0E9 / (double)this.elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return this.litChunks + "/" + this.totalChunks + " chunks relit, " + String.format("%.1f", this.getChunksPerSecond()) + " chunks/s";
+        }
+    }
+
     public void checkChunkEdges(final int chunkX, final int chunkZ) {
         this.checkSkyEdges(chunkX, chunkZ);
         this.checkBlockEdges(chunkX, chunkZ);
     }
 
+    /**
+     * Returns whether the edge checks of a chunk just loaded with its saved light can be skipped, which is the case when
+     * the fingerprints saved with it still match the sides of all its loaded neighbours. The fingerprints are only
+     * used once, so later calls for the chunk return {@code false}.
+     */
+    public boolean canSkipEdgeChecks(final ChunkAccess chunk) {
+        final long[] fingerprints = ((ExtendedChunk)chunk).getEdgeFingerprints();
+        if (fingerprints == null) {
+            return false;
+        }
+        ((ExtendedChunk)chunk).setEdgeFingerprints(null);
+
+        final ChunkPos pos = chunk.getPos();
+        for (int direction = 0; direction < EdgeFingerprints.DIRECTIONS; ++direction) {
+            final ChunkAccess neighbour = this.getAnyChunkNow(
+                    EdgeFingerprints.getNeighbourX(pos.x, direction), EdgeFingerprints.getNeighbourZ(pos.z, direction)
+            );
+            if (neighbour == null) {
+                // not checked against unloaded neighbours anyway, they check their edges when they load
+                continue;
+            }
+            if (!EdgeFingerprints.canFingerprint(neighbour)) {
+                // edge checks skip neighbours that are not lit yet, but this one could be lit with our edges by now
+                return false;
+            }
+            final long expected = fingerprints[direction];
+            if (expected == EdgeFingerprints.UNKNOWN || expected != EdgeFingerprints.fingerprint(this.world, neighbour, direction)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     public void checkSkyEdges(final int chunkX, final int chunkZ) {
         final SkyStarLightEngine skyEngine = this.getSkyLightEngine();
 
@@ -521,45 +1048,396 @@ public final class StarLightInterface {
         this.lightQueue.removeChunk(pos);
     }
 
+    public void updatePlayerChunkPositions(final long[] chunkKeys) {
+        this.playerChunkPositions = chunkKeys;
+    }
+
+    /**
+     * Sets the function used to order queued light tasks, mapping a chunk key to a priority. Tasks with a lower
+     * priority run first, and tasks with the same priority run in the order they were queued. The priority of a queued
+     * task improves by one every {@link StarlightConfig#PRIORITY_AGING_MILLIS}, so no task waits forever behind newer
+     * ones. Passing {@code null} restores the queue order.
+     */
+    public void setPriorityFunction(final LongToIntFunction priorityFunction) {
+        this.lightQueue.setPriorityFunction(priorityFunction);
+    }
+
+    // chebyshev distance in chunks to the closest player, or 0 if there are no players
+    protected int getPlayerDistancePriority(final long chunkKey) {
+        final long[] players = this.playerChunkPositions;
+        if (players.length == 0) {
+            return 0;
+        }
+
+        final int chunkX = CoordinateUtils.getChunkX(chunkKey);
+        final int chunkZ = CoordinateUtils.getChunkZ(chunkKey);
+
+        int ret = Integer.MAX_VALUE;
+        for (final long player : players) {
+            final int distance = Math.max(
+                Math.abs(CoordinateUtils.getChunkX(player) - chunkX),
+                Math.abs(CoordinateUtils.getChunkZ(player) - chunkZ)
+            );
+            if (distance < ret) {
+                ret = distance;
+            }
+        }
+
+        return ret;
+    }
+
     public void propagateChanges() {
-        if (this.lightQueue.isEmpty()) {
+        this.propagateChanges(0L, 0);
+    }
+
+    // A chunk task whose block change propagation ran past the time budget of propagateChanges, along with the engines
+    // holding its paused propagation. It is resumed before any other task runs, so nothing else writes the light of the
+    // chunks in its window in between. Its onComplete is only completed once it is done, so the chunk work ticket
+    // added for the task keeps those chunks loaded while it is paused. Only the serial drain pauses tasks.
+    protected static final class PausedTask {
+
+        public final LightQueue.ChunkTasks task;
+        public final SkyStarLightEngine skyEngine;
+        public final BlockStarLightEngine blockEngine;
+
+        public PausedTask(final LightQueue.ChunkTasks task, final SkyStarLightEngine skyEngine,
+                          final BlockStarLightEngine blockEngine) {
+            this.task = task;
+            this.skyEngine = skyEngine;
+            this.blockEngine = blockEngine;
+        }
+    }
+
+    // written only by the thread draining the queue, read by hasUpdates
+    protected volatile PausedTask pausedTask;
+
+    // runs the paused task, if any, to completion without a time limit
+    protected final void finishPausedTask() {
+        final PausedTask paused = this.pausedTask;
+        if (paused == null) {
             return;
         }
+        try {
+            this.handleTask(paused.task, paused.skyEngine, paused.blockEngine);
+        } finally {
+            this.pausedTask = null;
+            this.releaseSkyLightEngine(paused.skyEngine);
+            this.releaseBlockLightEngine(paused.blockEngine);
+        }
+    }
 
-        final SkyStarLightEngine skyEngine = this.getSkyLightEngine();
-        final BlockStarLightEngine blockEngine = this.getBlockLightEngine();
+    /**
+     * Runs queued light tasks until the queue is empty, or until either {@code maxNanos} have passed or {@code maxTasks}
+     * chunk tasks have run. A limit {@code <= 0} is ignored. At least one chunk task is always run, and the rest of the
+     * queue is left in place for the next call.
+     * <p>
+     * The time limit also applies inside the propagation of block changes: once it is reached, the propagation is
+     * paused and the task is resumed first by the next call, so a single huge block change is spread over several
+     * calls. Readers keep seeing the light from before the change until its propagation completes. Chunk lighting and
+     * edge checks are not paused, so a task may still go over the limit by the time they take.
+     * </p>
+     * @return {@code true} if the queue is empty and no task is paused
+     */
+    public boolean propagateChanges(final long maxNanos, final int maxTasks) {
+        if (this.pausedTask == null && this.lightQueue.isEmpty()) {
+            return true;
+        }
+
+        if (!this.isClientSide && StarlightConfig.PARALLEL_PROPAGATION_THREADS > 1) {
+            return this.propagateChangesParallel(getParallelPropagationPool(), maxNanos, maxTasks);
+        }
+
+        final PropagateChangesEvent event = new PropagateChangesEvent();
+        event.begin();
 
+        final long start = maxNanos > 0L ? System.nanoTime() : 0L;
+
+        final PausedTask paused = this.pausedTask;
+        final SkyStarLightEngine skyEngine = paused != null ? paused.skyEngine : this.getSkyLightEngine();
+        final BlockStarLightEngine blockEngine = paused != null ? paused.blockEngine : this.getBlockLightEngine();
+
+        int handled = 0;
+        PausedTask pausedAgain = null;
         try {
-            LightQueue.ChunkTasks task;
-            while ((task = this.lightQueue.removeFirstTask()) != null) {
-                if (task.lightTasks != null) {
-                    for (final Runnable run : task.lightTasks) {
-                        run.run();
-                    }
+            if (maxNanos > 0L) {
+                if (skyEngine != null) {
+                    skyEngine.setPropagationDeadline(start + maxNanos);
+                }
+                if (blockEngine != null) {
+                    blockEngine.setPropagationDeadline(start + maxNanos);
+                }
+            }
+            LightQueue.ChunkTasks task = paused != null ? paused.task : this.lightQueue.removeFirstTask();
+            while (task != null) {
+                if (!this.handleTask(task, skyEngine, blockEngine)) {
+                    pausedAgain = new PausedTask(task, skyEngine, blockEngine);
+                    break;
+                }
+                ++handled;
+                if ((maxTasks > 0 && handled >= maxTasks) || (maxNanos > 0L && System.nanoTime() - start >= maxNanos)) {
+                    break;
                 }
+                task = this.lightQueue.removeFirstTask();
+            }
+        } finally {
+            // if the task threw, the engines destroyed their caches and the task is dropped, as with any other failure
+            this.pausedTask = pausedAgain;
+            if (skyEngine != null) {
+                skyEngine.clearPropagationDeadline();
+            }
+            if (blockEngine != null) {
+                blockEngine.clearPropagationDeadline();
+            }
+            if (pausedAgain == null) {
+                this.releaseSkyLightEngine(skyEngine);
+                this.releaseBlockLightEngine(blockEngine);
+            }
+        }
 
-                final long coordinate = task.chunkCoordinate;
-                final int chunkX = CoordinateUtils.getChunkX(coordinate);
-                final int chunkZ = CoordinateUtils.getChunkZ(coordinate);
+        final boolean queueEmpty = pausedAgain == null && this.lightQueue.isEmpty();
+        this.commitPropagateEvent(event, handled, false, queueEmpty);
+        return queueEmpty;
+    }
+
+    protected final void commitPropagateEvent(final PropagateChangesEvent event, final int tasks, final boolean parallel,
+                                              final boolean queueEmpty) {
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.world = this.world == null ? null : this.world.dimension().location().toString();
+        event.tasks = tasks;
+        event.parallel = parallel;
+        event.queueEmpty = queueEmpty;
+        event.commit();
+    }
+
+    // returns false if the block change propagation of the task was paused, see PausedTask. the task must then be
+    // passed again with the same engines to continue it
+    protected final boolean handleTask(final LightQueue.ChunkTasks task, final SkyStarLightEngine skyEngine,
+                                       final BlockStarLightEngine blockEngine) {
+        final ChunkTaskEvent event = new ChunkTaskEvent();
+        event.begin();
+
+        final int pausedStage = task.pausedStage;
+        task.pausedStage = LightQueue.ChunkTasks.NOT_PAUSED;
+
+        if (pausedStage == LightQueue.ChunkTasks.NOT_PAUSED && task.lightTasks != null) {
+            for (final Runnable run : task.lightTasks) {
+                run.run();
+            }
+        }
+
+        final long coordinate = task.chunkCoordinate;
+        final int chunkX = CoordinateUtils.getChunkX(coordinate);
+        final int chunkZ = CoordinateUtils.getChunkZ(coordinate);
+
+        final LongSet positions = task.changedPositions;
+        final Boolean[] sectionChanges = task.changedSectionSet;
+
+        if (skyEngine != null && (!positions.isEmpty() || sectionChanges != null) && pausedStage <= LightQueue.ChunkTasks.PAUSED_SKY) {
+            final boolean done = pausedStage == LightQueue.ChunkTasks.PAUSED_SKY
+                    ? skyEngine.resumePropagation(this.lightAccess)
+                    : skyEngine.blocksChangedInChunk(this.lightAccess, chunkX, chunkZ, positions, sectionChanges);
+            if (!done) {
+                task.pausedStage = LightQueue.ChunkTasks.PAUSED_SKY;
+                return false;
+            }
+        }
+        if (blockEngine != null && (!positions.isEmpty() || sectionChanges != null)) {
+            final boolean done = pausedStage == LightQueue.ChunkTasks.PAUSED_BLOCK
+                    ? blockEngine.resumePropagation(this.lightAccess)
+                    : blockEngine.blocksChangedInChunk(this.lightAccess, chunkX, chunkZ, positions, sectionChanges);
+            if (!done) {
+                task.pausedStage = LightQueue.ChunkTasks.PAUSED_BLOCK;
+                return false;
+            }
+        }
+
+        if (skyEngine != null && task.queuedEdgeChecksSky != null) {
+            skyEngine.checkChunkEdges(this.lightAccess, chunkX, chunkZ, task.queuedEdgeChecksSky);
+        }
+        if (blockEngine != null && task.queuedEdgeChecksBlock != null) {
+            blockEngine.checkChunkEdges(this.lightAccess, chunkX, chunkZ, task.queuedEdgeChecksBlock);
+        }
 
-                final Set<BlockPos> positions = task.changedPositions;
-                final Boolean[] sectionChanges = task.changedSectionSet;
+        task.onComplete.complete(null);
+
+        // the completion callbacks run synchronously in complete(), so this includes them
+        final long queueTime = System.nanoTime() - task.enqueueTime;
+        this.metrics.recordTask(queueTime);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.chunkX = chunkX;
+            event.chunkZ = chunkZ;
+            event.blockChanges = positions.size();
+            event.sectionChanges = sectionChanges != null;
+            event.lightTasks = task.lightTasks == null ? 0 : task.lightTasks.size();
+            event.skyEdgeChecks = task.queuedEdgeChecksSky == null ? 0 : task.queuedEdgeChecksSky.size();
+            event.blockEdgeChecks = task.queuedEdgeChecksBlock == null ? 0 : task.queuedEdgeChecksBlock.size();
+            event.queueTime = queueTime;
+            event.commit();
+        }
+        return true;
+    }
+
+    // A chunk task reads and writes at most the 5x5 chunk window (2 radius) around its chunk. Tasks are grouped into
+    // square regions of (1 << PARALLEL_REGION_SHIFT) chunks, and only regions with the same x and z parity run at
+    // the same time. Those regions are separated by at least one full region, which is more than the 4 chunks
+    // required for their windows to never overlap. Tasks inside a region still run in queue order on one engine pair.
+    // Since light propagation always converges to the same values regardless of the order sources are processed in,
+    // the result is the same as the serial drain.
+    protected static final int PARALLEL_REGION_SHIFT = 3;
+
+    private static volatile ForkJoinPool parallelPropagationPool;
+
+    protected static ForkJoinPool getParallelPropagationPool() {
+        ForkJoinPool ret = parallelPropagationPool;
+        if (ret != null) {
+            return ret;
+        }
+        synchronized (StarLightInterface.class) {
+            if ((ret = parallelPropagationPool) != null) {
+                return ret;
+            }
+            final AtomicInteger threadCounter = new AtomicInteger();
+            return parallelPropagationPool = new ForkJoinPool(StarlightConfig.PARALLEL_PROPAGATION_THREADS, (final ForkJoinPool pool) -> {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("Starlight Parallel Propagation Thread #" + threadCounter.getAndIncrement());
+                return thread;
+            }, null, false);
+        }
+    }
+
+    public void propagateChangesParallel(final ForkJoinPool pool) {
+        this.propagateChangesParallel(pool, 0L, 0);
+    }
+
+    // same limits as propagateChanges(long, int), but checked only between batches. the tasks are completed on the
+    // threads of the pool, so dependents of their onComplete futures run there. if a task throws, the other regions
+    // still run, every removed task not yet completed is completed exceptionally, and the exception is rethrown
+    public boolean propagateChangesParallel(final ForkJoinPool pool, final long maxNanos, final int maxTasks) {
+        // a task paused by an earlier serial drain must complete before any region may touch its chunks
+        this.finishPausedTask();
+        final PropagateChangesEvent event = new PropagateChangesEvent();
+        event.begin();
+
+        final long start = maxNanos > 0L ? System.nanoTime() : 0L;
+        int remainingTasks = maxTasks > 0 ? maxTasks : Integer.MAX_VALUE;
+        int handled = 0;
+
+        List<LightQueue.ChunkTasks> tasks;
+        // tasks queued while we are running are picked up by the next iteration, same as the serial drain
+        while (!(tasks = this.lightQueue.removeTasks(remainingTasks)).isEmpty()) {
+            final Long2ObjectLinkedOpenHashMap<List<LightQueue.ChunkTasks>> tasksByRegion = new Long2ObjectLinkedOpenHashMap<>();
+            for (int i = 0, len = tasks.size(); i < len; ++i) {
+                final LightQueue.ChunkTasks task = tasks.get(i);
+                final int regionX = CoordinateUtils.getChunkX(task.chunkCoordinate) >> PARALLEL_REGION_SHIFT;
+                final int regionZ = CoordinateUtils.getChunkZ(task.chunkCoordinate) >> PARALLEL_REGION_SHIFT;
+                tasksByRegion.computeIfAbsent(CoordinateUtils.getChunkKey(regionX, regionZ), (final long keyInMap) -> {
+                    return new ArrayList<>();
+                }).add(task);
+            }
 
-                if (skyEngine != null && (!positions.isEmpty() || sectionChanges != null)) {
-                    skyEngine.blocksChangedInChunk(this.lightAccess, chunkX, chunkZ, positions, sectionChanges);
+            try {
+                runInParityPhases(pool, tasksByRegion, this::handleTasks);
+            } catch (final Throwable thr) {
+                // a region failed part way, every task it did not complete was removed from the queue already and
+                // would never complete otherwise
+                for (int i = 0, len = tasks.size(); i < len; ++i) {
+                    tasks.get(i).onComplete.completeExceptionally(thr);
                 }
-                if (blockEngine != null && (!positions.isEmpty() || sectionChanges != null)) {
-                    blockEngine.blocksChangedInChunk(this.lightAccess, chunkX, chunkZ, positions, sectionChanges);
+                throw thr;
+            }
+            handled += tasks.size();
+
+            if (maxTasks > 0 && (remainingTasks -= tasks.size()) <= 0) {
+                break;
+            }
+            if (maxNanos > 0L && System.nanoTime() - start >= maxNanos) {
+                break;
+            }
+        }
+
+        final boolean queueEmpty = this.lightQueue.isEmpty();
+        this.commitPropagateEvent(event, handled, true, queueEmpty);
+        return queueEmpty;
+    }
+
+    // Runs the action for every region, running regions with the same x and z parity in parallel. A region which throws
+    // does not stop the other regions or the later phases, the first exception is rethrown once every phase is done
+    // with the others suppressed. The action runs on the pool's threads, so anything it completes (i.e the onComplete
+    // futures of tasks) runs its dependents there.
+    protected static <T> void runInParityPhases(final ForkJoinPool pool, final Long2ObjectLinkedOpenHashMap<T> byRegion,
+                                                final Consumer<T> action) {
+        Throwable thrown = null;
+        // parity = (regionX & 1) | ((regionZ & 1) << 1)
+        for (int parity = 0; parity < 4; ++parity) {
+            final List<ForkJoinTask<?>> jobs = new ArrayList<>();
+            for (final Iterator<Long2ObjectMap.Entry<T>> iterator = byRegion.long2ObjectEntrySet().fastIterator(); iterator.hasNext();) {
+                final Long2ObjectMap.Entry<T> entry = iterator.next();
+                final long regionKey = entry.getLongKey();
+                if (((CoordinateUtils.getChunkX(regionKey) & 1) | ((CoordinateUtils.getChunkZ(regionKey) & 1) << 1)) != parity) {
+                    continue;
                 }
+                final T value = entry.getValue();
+                jobs.add(ForkJoinTask.adapt(() -> {
+                    action.accept(value);
+                }));
+            }
 
-                if (skyEngine != null && task.queuedEdgeChecksSky != null) {
-                    skyEngine.checkChunkEdges(this.lightAccess, chunkX, chunkZ, task.queuedEdgeChecksSky);
+            if (jobs.isEmpty()) {
+                continue;
+            }
+            if (jobs.size() == 1) {
+                // no parallelism possible, avoid the hand-off
+                try {
+                    jobs.get(0).invoke();
+                } catch (final Throwable thr) {
+                    thrown = addThrown(thrown, thr);
                 }
-                if (blockEngine != null && task.queuedEdgeChecksBlock != null) {
-                    blockEngine.checkChunkEdges(this.lightAccess, chunkX, chunkZ, task.queuedEdgeChecksBlock);
+                continue;
+            }
+
+            for (int i = 0, len = jobs.size(); i < len; ++i) {
+                pool.execute(jobs.get(i));
+            }
+
+            // make sure every job of this parity is done before the next parity can touch the same chunks
+            for (int i = 0, len = jobs.size(); i < len; ++i) {
+                try {
+                    jobs.get(i).join();
+                } catch (final Throwable thr) {
+                    thrown = addThrown(thrown, thr);
                 }
+            }
+        }
+
+        if (thrown instanceof RuntimeException) {
+            throw (RuntimeException)thrown;
+        } else if (thrown instanceof Error) {
+            throw (Error)thrown;
+        } else if (thrown != null) {
+            throw new RuntimeException(thrown);
+        }
+    }
+
+    private static Throwable addThrown(final Throwable thrown, final Throwable thr) {
+        if (thrown == null) {
+            return thr;
+        }
+        thrown.addSuppressed(thr);
+        return thrown;
+    }
+
+    protected final void handleTasks(final List<LightQueue.ChunkTasks> tasks) {
+        final SkyStarLightEngine skyEngine = this.getSkyLightEngine();
+        final BlockStarLightEngine blockEngine = this.getBlockLightEngine();
 
-                task.onComplete.complete(null);
+        try {
+            for (int i = 0, len = tasks.size(); i < len; ++i) {
+                this.handleTask(tasks.get(i), skyEngine, blockEngine);
             }
         } finally {
             this.releaseSkyLightEngine(skyEngine);
@@ -569,88 +1447,276 @@ public final class StarLightInterface {
 
     public static final class LightQueue {
 
-        protected final Long2ObjectLinkedOpenHashMap<ChunkTasks> chunkTasks = new Long2ObjectLinkedOpenHashMap<>();
+        // Producers (main thread, worldgen threads) only lock the stripe owning the chunk, so that queueing changes
+        // for different chunks does not contend. Tasks are created and modified only while holding their stripe lock,
+        // and the consumer removes a task from its stripe before reading it, so a removed task is never modified again.
+        // The order in which tasks are created is kept by a lock-free queue.
+        protected static final int STRIPE_COUNT = 64; // must be a power of two
+        protected static final long PRIORITY_AGING_NANOS = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, StarlightConfig.PRIORITY_AGING_MILLIS));
+
+        protected final Long2ObjectOpenHashMap<ChunkTasks>[] stripes;
+        protected final ConcurrentLinkedQueue<ChunkTasks> queue = new ConcurrentLinkedQueue<>();
+        protected final AtomicInteger taskCount = new AtomicInteger();
         protected final StarLightInterface manager;
 
+        // When a priority function is set, the consumer moves every task from the queue into this heap before taking
+        // the next one, so that a task queued close to a player while a large batch is running still goes first.
+        // The priority of a task is computed when it is moved into the heap. Only accessed by the consumer.
+        // Tasks age by one priority every PRIORITY_AGING_NANOS they wait. As every task ages at the same rate, ordering
+        // by priority minus the time waited is the same as ordering by priority plus the time queued (both scaled to
+        // nanoseconds), which does not change while the task is in the heap.
+        // A task which only had generation work when it was moved into the heap is queued again when its first block or
+        // section change is merged into it, so that it is moved into the heap a second time without the generation
+        // penalty. Whichever of its entries is taken first runs the task, and the other is skipped as the task is no
+        // longer in its stripe.
+        protected final ObjectHeapPriorityQueue<PrioritisedTask> prioritisedTasks = new ObjectHeapPriorityQueue<>((final PrioritisedTask t1, final PrioritisedTask t2) -> {
+            final int priorityCompare = Long.compare(t1.priority, t2.priority);
+            return priorityCompare != 0 ? priorityCompare : Long.compare(t1.sequence, t2.sequence);
+        });
+        protected long sequence;
+        protected volatile LongToIntFunction priorityFunction;
+        protected final long creationTime = System.nanoTime();
+
         public LightQueue(final StarLightInterface manager) {
             this.manager = manager;
+            this.stripes = new Long2ObjectOpenHashMap[STRIPE_COUNT];
+            for (int i = 0; i < STRIPE_COUNT; ++i) {
+                this.stripes[i] = new Long2ObjectOpenHashMap<>();
+            }
         }
 
-        public synchronized boolean isEmpty() {
-            return this.chunkTasks.isEmpty();
+        protected Long2ObjectOpenHashMap<ChunkTasks> getStripe(final long chunkKey) {
+            return this.stripes[(int)HashCommon.mix(chunkKey) & (STRIPE_COUNT - 1)];
         }
 
-        public synchronized LightQueue.ChunkTasks queueBlockChange(final BlockPos pos) {
-            final ChunkTasks tasks = this.chunkTasks.computeIfAbsent(CoordinateUtils.getChunkKey(pos), ChunkTasks::new);
-            tasks.changedPositions.add(pos.immutable());
-            return tasks;
+        // must hold the stripe lock
+        protected ChunkTasks getOrCreateTasks(final Long2ObjectOpenHashMap<ChunkTasks> stripe, final long chunkKey) {
+            ChunkTasks ret = stripe.get(chunkKey);
+            if (ret == null) {
+                ret = new ChunkTasks(chunkKey);
+                stripe.put(chunkKey, ret);
+                this.taskCount.getAndIncrement();
+                this.queue.add(ret);
+            }
+            return ret;
         }
 
-        public synchronized LightQueue.ChunkTasks queueSectionChange(final SectionPos pos, final boolean newEmptyValue) {
-            final ChunkTasks tasks = this.chunkTasks.computeIfAbsent(CoordinateUtils.getChunkKey(pos), ChunkTasks::new);
+        public boolean isEmpty() {
+            return this.taskCount.get() == 0;
+        }
 
-            if (tasks.changedSectionSet == null) {
-                tasks.changedSectionSet = new Boolean[this.manager.maxSection - this.manager.minSection + 1];
-            }
-            tasks.changedSectionSet[pos.getY() - this.manager.minSection] = Boolean.valueOf(newEmptyValue);
+        public int size() {
+            return this.taskCount.get();
+        }
 
-            return tasks;
+        public void setPriorityFunction(final LongToIntFunction priorityFunction) {
+            this.priorityFunction = priorityFunction;
         }
 
-        public synchronized LightQueue.ChunkTasks queueChunkLighting(final ChunkPos pos, final Runnable lightTask) {
-            final ChunkTasks tasks = this.chunkTasks.computeIfAbsent(CoordinateUtils.getChunkKey(pos), ChunkTasks::new);
-            if (tasks.lightTasks == null) {
-                tasks.lightTasks = new ArrayList<>();
+        // must hold the stripe lock, and be called before the change is added to the task
+        protected void onFirstBlockChange(final ChunkTasks tasks) {
+            if (tasks.prioritisedAsGeneration && tasks.changedPositions.isEmpty() && tasks.changedSectionSet == null) {
+                tasks.prioritisedAsGeneration = false;
+                this.queue.add(tasks);
             }
-            tasks.lightTasks.add(lightTask);
+        }
 
-            return tasks;
+        public LightQueue.ChunkTasks queueBlockChange(final BlockPos pos) {
+            final long chunkKey = CoordinateUtils.getChunkKey(pos);
+            final Long2ObjectOpenHashMap<ChunkTasks> stripe = this.getStripe(chunkKey);
+            synchronized (stripe) {
+                final ChunkTasks tasks = this.getOrCreateTasks(stripe, chunkKey);
+                this.onFirstBlockChange(tasks);
+                tasks.changedPositions.add(CoordinateUtils.getBlockKey(pos));
+                return tasks;
+            }
         }
 
-        public synchronized LightQueue.ChunkTasks queueChunkSkylightEdgeCheck(final SectionPos pos, final ShortCollection sections) {
-            final ChunkTasks tasks = this.chunkTasks.computeIfAbsent(CoordinateUtils.getChunkKey(pos), ChunkTasks::new);
+        public LightQueue.ChunkTasks queueSectionChange(final SectionPos pos, final boolean newEmptyValue) {
+            final long chunkKey = CoordinateUtils.getChunkKey(pos);
+            final Long2ObjectOpenHashMap<ChunkTasks> stripe = this.getStripe(chunkKey);
+            synchronized (stripe) {
+                final ChunkTasks tasks = this.getOrCreateTasks(stripe, chunkKey);
+                this.onFirstBlockChange(tasks);
 
-            ShortOpenHashSet queuedEdges = tasks.queuedEdgeChecksSky;
-            if (queuedEdges == null) {
-                queuedEdges = tasks.queuedEdgeChecksSky = new ShortOpenHashSet();
+                if (tasks.changedSectionSet == null) {
+                    tasks.changedSectionSet = new Boolean[this.manager.maxSection - this.manager.minSection + 1];
+                }
+                tasks.changedSectionSet[pos.getY() - this.manager.minSection] = Boolean.valueOf(newEmptyValue);
+
+                return tasks;
             }
-            queuedEdges.addAll(sections);
+        }
+
+        public LightQueue.ChunkTasks queueChunkLighting(final ChunkPos pos, final Runnable lightTask) {
+            final long chunkKey = CoordinateUtils.getChunkKey(pos);
+            final Long2ObjectOpenHashMap<ChunkTasks> stripe = this.getStripe(chunkKey);
+            synchronized (stripe) {
+                final ChunkTasks tasks = this.getOrCreateTasks(stripe, chunkKey);
+                if (tasks.lightTasks == null) {
+                    tasks.lightTasks = new ArrayList<>();
+                }
+                tasks.lightTasks.add(lightTask);
 
-            return tasks;
+                return tasks;
+            }
         }
 
-        public synchronized LightQueue.ChunkTasks queueChunkBlocklightEdgeCheck(final SectionPos pos, final ShortCollection sections) {
-            final ChunkTasks tasks = this.chunkTasks.computeIfAbsent(CoordinateUtils.getChunkKey(pos), ChunkTasks::new);
+        public LightQueue.ChunkTasks queueChunkSkylightEdgeCheck(final SectionPos pos, final ShortCollection sections) {
+            final long chunkKey = CoordinateUtils.getChunkKey(pos);
+            final Long2ObjectOpenHashMap<ChunkTasks> stripe = this.getStripe(chunkKey);
+            synchronized (stripe) {
+                final ChunkTasks tasks = this.getOrCreateTasks(stripe, chunkKey);
+
+                ShortOpenHashSet queuedEdges = tasks.queuedEdgeChecksSky;
+                if (queuedEdges == null) {
+                    queuedEdges = tasks.queuedEdgeChecksSky = new ShortOpenHashSet();
+                }
+                queuedEdges.addAll(sections);
 
-            ShortOpenHashSet queuedEdges = tasks.queuedEdgeChecksBlock;
-            if (queuedEdges == null) {
-                queuedEdges = tasks.queuedEdgeChecksBlock = new ShortOpenHashSet();
+                return tasks;
             }
-            queuedEdges.addAll(sections);
+        }
+
+        public LightQueue.ChunkTasks queueChunkBlocklightEdgeCheck(final SectionPos pos, final ShortCollection sections) {
+            final long chunkKey = CoordinateUtils.getChunkKey(pos);
+            final Long2ObjectOpenHashMap<ChunkTasks> stripe = this.getStripe(chunkKey);
+            synchronized (stripe) {
+                final ChunkTasks tasks = this.getOrCreateTasks(stripe, chunkKey);
 
-            return tasks;
+                ShortOpenHashSet queuedEdges = tasks.queuedEdgeChecksBlock;
+                if (queuedEdges == null) {
+                    queuedEdges = tasks.queuedEdgeChecksBlock = new ShortOpenHashSet();
+                }
+                queuedEdges.addAll(sections);
+
+                return tasks;
+            }
         }
 
         public void removeChunk(final ChunkPos pos) {
+            final long chunkKey = CoordinateUtils.getChunkKey(pos);
+            final Long2ObjectOpenHashMap<ChunkTasks> stripe = this.getStripe(chunkKey);
             final ChunkTasks tasks;
-            synchronized (this) {
-                tasks = this.chunkTasks.remove(CoordinateUtils.getChunkKey(pos));
+            synchronized (stripe) {
+                tasks = stripe.remove(chunkKey);
             }
             if (tasks != null) {
+                // the consumer will skip the task when it is polled from the queue
+                this.taskCount.getAndDecrement();
                 tasks.onComplete.complete(null);
             }
         }
 
-        public synchronized ChunkTasks removeFirstTask() {
-            if (this.chunkTasks.isEmpty()) {
-                return null;
+        // returns false if the task was already removed by removeChunk
+        protected boolean tryRemoveTask(final ChunkTasks task) {
+            final Long2ObjectOpenHashMap<ChunkTasks> stripe = this.getStripe(task.chunkCoordinate);
+            synchronized (stripe) {
+                if (stripe.get(task.chunkCoordinate) != task) {
+                    return false;
+                }
+                stripe.remove(task.chunkCoordinate);
+            }
+            this.taskCount.getAndDecrement();
+            return true;
+        }
+
+        protected void prioritiseQueuedTasks(final LongToIntFunction priorityFunction) {
+            ChunkTasks task;
+            while ((task = this.queue.poll()) != null) {
+                final long chunkKey = task.chunkCoordinate;
+                final boolean hasBlockChanges;
+                synchronized (this.getStripe(chunkKey)) {
+                    hasBlockChanges = !task.changedPositions.isEmpty() || task.changedSectionSet != null;
+                    task.prioritisedAsGeneration = !hasBlockChanges;
+                }
+
+                long priority = (long)priorityFunction.applyAsInt(chunkKey);
+                if (!hasBlockChanges) {
+                    // only generation lighting or edge checks, which nobody is looking at yet
+                    priority += (long)StarlightConfig.PRIORITY_GENERATION_PENALTY;
+                }
+
+                if (PRIORITY_AGING_NANOS > 0L) {
+                    priority = saturatingAdd(saturatingMultiply(priority, PRIORITY_AGING_NANOS), task.enqueueTime - this.creationTime);
+                }
+
+                this.prioritisedTasks.enqueue(new PrioritisedTask(task, priority, this.sequence++));
+            }
+        }
+
+        public ChunkTasks removeFirstTask() {
+            final LongToIntFunction priorityFunction = this.priorityFunction;
+            if (priorityFunction != null) {
+                this.prioritiseQueuedTasks(priorityFunction);
+            }
+
+            ChunkTasks task;
+            // still drain the heap if the priority function was removed
+            while (!this.prioritisedTasks.isEmpty()) {
+                task = this.prioritisedTasks.dequeue().task;
+                if (this.tryRemoveTask(task)) {
+                    return task;
+                }
+            }
+            while ((task = this.queue.poll()) != null) {
+                if (this.tryRemoveTask(task)) {
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        // a large penalty or aging interval must not wrap a priority around to the front of the heap
+        protected static long saturatingMultiply(final long a, final long b) {
+            final long ret = a * b;
+            if (Math.multiplyHigh(a, b) != (ret >> 63)) {
+                return (a < 0L) != (b < 0L) ? Long.MIN_VALUE : Long.MAX_VALUE;
+            }
+            return ret;
+        }
+
+        protected static long saturatingAdd(final long a, final long b) {
+            final long ret = a + b;
+            // overflow iff both have the same sign and the result has the other
+            if (((a ^ ret) & (b ^ ret)) < 0L) {
+                return a < 0L ? Long.MIN_VALUE : Long.MAX_VALUE;
+            }
+            return ret;
+        }
+
+        protected static final class PrioritisedTask {
+
+            public final ChunkTasks task;
+            public final long priority;
+            public final long sequence;
+
+            public PrioritisedTask(final ChunkTasks task, final long priority, final long sequence) {
+                this.task = task;
+                this.priority = priority;
+                this.sequence = sequence;
+            }
+        }
+
+        // returns the tasks in queue order, or in priority order if a priority function is set
+        public List<ChunkTasks> removeAllTasks() {
+            return this.removeTasks(Integer.MAX_VALUE);
+        }
+
+        // same order as removeAllTasks, but removes at most maxTasks
+        public List<ChunkTasks> removeTasks(final int maxTasks) {
+            final List<ChunkTasks> ret = new ArrayList<>();
+            ChunkTasks task;
+            while (ret.size() < maxTasks && (task = this.removeFirstTask()) != null) {
+                ret.add(task);
             }
-            return this.chunkTasks.removeFirst();
+            return ret;
         }
 
         public static final class ChunkTasks {
 
-            public final Set<BlockPos> changedPositions = new ObjectOpenHashSet<>();
+            // encoded using CoordinateUtils#getBlockKey
+            public final LongOpenHashSet changedPositions = new LongOpenHashSet();
             public Boolean[] changedSectionSet;
             public ShortOpenHashSet queuedEdgeChecksSky;
             public ShortOpenHashSet queuedEdgeChecksBlock;
@@ -658,9 +1724,21 @@ public final class StarLightInterface {
 
             public boolean isTicketAdded = false;
             public final CompletableFuture<Void> onComplete = new CompletableFuture<>();
+            // System#nanoTime when the task was queued
+            public final long enqueueTime = System.nanoTime();
 
             public final long chunkCoordinate;
 
+            // whether the task was moved into the priority heap with the generation penalty, see prioritisedTasks.
+            // guarded by the stripe lock
+            protected boolean prioritisedAsGeneration;
+
+            protected static final int NOT_PAUSED = 0;
+            protected static final int PAUSED_SKY = 1;
+            protected static final int PAUSED_BLOCK = 2;
+            // which engine's block change propagation is paused, see PausedTask. only accessed by the consumer
+            protected int pausedStage = NOT_PAUSED;
+
             public ChunkTasks(final long chunkCoordinate) {
                 this.chunkCoordinate = chunkCoordinate;
             }
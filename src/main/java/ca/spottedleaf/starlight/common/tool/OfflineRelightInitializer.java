@@ -0,0 +1,33 @@
+package ca.spottedleaf.starlight.common.tool;
+
+import ca.spottedleaf.starlight.common.config.StarlightConfig;
+import com.mojang.logging.LogUtils;
+import net.fabricmc.api.DedicatedServerModInitializer;
+import org.slf4j.Logger;
+import java.nio.file.Path;
+
+public final class OfflineRelightInitializer implements DedicatedServerModInitializer {
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    @Override
+    public void onInitializeServer() {
+        if (StarlightConfig.OFFLINE_RELIGHT_DIRECTORY == null) {
+            return;
+        }
+
+        boolean success;
+        try {
+            success = OfflineRelighter.forDimensionDirectory(
+                    Path.of(StarlightConfig.OFFLINE_RELIGHT_DIRECTORY), StarlightConfig.OFFLINE_RELIGHT_MIN_Y,
+                    StarlightConfig.OFFLINE_RELIGHT_HEIGHT, StarlightConfig.OFFLINE_RELIGHT_SKY, StarlightConfig.OFFLINE_RELIGHT_THREADS
+            ).run();
+        } catch (final Throwable thr) {
+            LOGGER.error("Offline relight failed", thr);
+            success = false;
+        }
+
+        // never start the server on a world which is being relit
+        System.exit(success ? 0 : 1);
+    }
+}
@@ -0,0 +1,446 @@
+package ca.spottedleaf.starlight.common.tool;
+
+import ca.spottedleaf.starlight.common.chunk.ExtendedChunk;
+import ca.spottedleaf.starlight.common.light.BlockStarLightEngine;
+import ca.spottedleaf.starlight.common.light.SkyStarLightEngine;
+import ca.spottedleaf.starlight.common.light.StarLightEngine;
+import ca.spottedleaf.starlight.common.util.CoordinateUtils;
+import ca.spottedleaf.starlight.common.util.SaveUtil;
+import ca.spottedleaf.starlight.common.util.WorldUtil;
+import com.mojang.logging.LogUtils;
+import com.mojang.serialization.Codec;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.Holder;
+import net.minecraft.core.IdMapper;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.level.BlockGetter;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.EmptyBlockGetter;
+import net.minecraft.world.level.LevelHeightAccessor;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.ChunkStatus;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.LightChunk;
+import net.minecraft.world.level.chunk.LightChunkGetter;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.chunk.ProtoChunk;
+import net.minecraft.world.level.chunk.UpgradeData;
+import net.minecraft.world.level.chunk.storage.RegionFile;
+import net.minecraft.world.ticks.ProtoChunkTicks;
+import org.slf4j.Logger;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Relights every chunk of a dimension whose saved light is not from the current light version, directly on its
+ * region files. This moves the cost of a light version change from chunk loading to a single offline pass.
+ * <p>
+ * The engines rely on Starlight's mixins, so this runs inside the dedicated server launcher:
+ * {@code java -Dstarlight.offline-relight=world/DIM-1 -jar fabric-server-launch.jar nogui}. The server exits
+ * once the relight is done. The server must not be running on the same world at the same time. Dimensions other than
+ * the vanilla ones also need their dimension type, see {@link #forDimensionDirectory(Path, Integer, Integer, Boolean, int)}.
+ * </p>
+ * <p>
+ * Each region file is relit on its own thread, with a border of one chunk loaded from its neighbouring region files so
+ * that light crosses region borders. Only regions that are not adjacent are processed at the same time, so a region
+ * file is never read while it is being written. Chunks that need datafixing are left alone and relit when loaded.
+ * </p>
+ */
+public final class OfflineRelighter {
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final Pattern REGION_FILE_NAME = Pattern.compile("^r\\.(-?\\d+)\\.(-?\\d+)\\.mca$");
+    private static final int REGION_SHIFT = 5;
+    private static final int REGION_SIZE = 1 << REGION_SHIFT;
+
+    private final Path regionDirectory;
+    private final LevelHeightAccessor height;
+    private final boolean hasSkyLight;
+    private final int threads;
+
+    private int dataVersion;
+    private Codec<PalettedContainer<BlockState>> blockStateCodec;
+    // biomes are never read by the light engine
+    private final IdMapper<Holder<Biome>> biomes = new IdMapper<>();
+    private final Holder<Biome> biome = Holder.direct(null);
+
+    private final AtomicLong relitChunks = new AtomicLong();
+    private final AtomicInteger finishedRegions = new AtomicInteger();
+
+    public OfflineRelighter(final Path dimensionDirectory, final int minBuildHeight, final int height,
+                            final boolean hasSkyLight, final int threads) {
+        this.regionDirectory = dimensionDirectory.resolve("region");
+        this.height = new LevelHeightAccessor() {
+            @Override
+            public int getHeight() {
+                return height;
+            }
+
+            @Override
+            public int getMinBuildHeight() {
+                return minBuildHeight;
+            }
+        };
+        this.hasSkyLight = hasSkyLight;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Creates a relighter for the given dimension directory. The height and sky light of a dimension come from its
+     * dimension type, which may be changed by datapacks and is not read here, so each value is taken from the given
+     * parameter when it is not {@code null}. Otherwise, the vanilla value is only assumed for the vanilla dimension
+     * directories: the world directory itself (containing level.dat) for the overworld, and DIM-1 and DIM1 for the
+     * nether and the end. Any other directory must have every value given.
+     * @throws IllegalArgumentException If a value is missing for a directory which is not a vanilla dimension, or the
+     *                                  given height is not valid.
+     */
+    public static OfflineRelighter forDimensionDirectory(final Path dimensionDirectory, final Integer minBuildHeight,
+                                                         final Integer height, final Boolean hasSkyLight, final int threads) {
+        final String name = dimensionDirectory.toAbsolutePath().normalize().getFileName().toString();
+
+        final int vanillaMinBuildHeight;
+        final int vanillaHeight;
+        final boolean vanillaSkyLight;
+        final String vanillaDimension;
+        if (name.equals("DIM-1")) {
+            vanillaMinBuildHeight = 0;
+            vanillaHeight = 256;
+            vanillaSkyLight = false;
+            vanillaDimension = "minecraft:the_nether";
+        } else if (name.equals("DIM1")) {
+            vanillaMinBuildHeight = 0;
+            vanillaHeight = 256;
+            vanillaSkyLight = false;
+            vanillaDimension = "minecraft:the_end";
+        } else if (Files.isRegularFile(dimensionDirectory.resolve("level.dat"))) {
+            vanillaMinBuildHeight = -64;
+            vanillaHeight = 384;
+            vanillaSkyLight = true;
+            vanillaDimension = "minecraft:overworld";
+        } else {
+            if (minBuildHeight == null || height == null || hasSkyLight == null) {
+                throw new IllegalArgumentException(
+                        "Cannot tell the dimension type of " + dimensionDirectory + ", set starlight.offline-relight-min-y, "
+                        + "starlight.offline-relight-height and starlight.offline-relight-sky to the min_y, height and "
+                        + "has_skylight of its dimension type"
+                );
+            }
+            return create(dimensionDirectory, minBuildHeight.intValue(), height.intValue(), hasSkyLight.booleanValue(), threads);
+        }
+
+        final int finalMinBuildHeight = minBuildHeight == null ? vanillaMinBuildHeight : minBuildHeight.intValue();
+        final int finalHeight = height == null ? vanillaHeight : height.intValue();
+        final boolean finalSkyLight = hasSkyLight == null ? vanillaSkyLight : hasSkyLight.booleanValue();
+        if (minBuildHeight == null || height == null || hasSkyLight == null) {
+            LOGGER.warn("Relighting " + dimensionDirectory + " as " + vanillaDimension + " with min_y " + finalMinBuildHeight
+                    + ", height " + finalHeight + " and has_skylight " + finalSkyLight + ". If a datapack changes this "
+                    + "dimension type, set starlight.offline-relight-min-y, starlight.offline-relight-height and "
+                    + "starlight.offline-relight-sky instead");
+        }
+
+        return create(dimensionDirectory, finalMinBuildHeight, finalHeight, finalSkyLight, threads);
+    }
+
+    private static OfflineRelighter create(final Path dimensionDirectory, final int minBuildHeight, final int height,
+                                           final boolean hasSkyLight, final int threads) {
+        // same constraints as DimensionType
+        if (height < 16 || (height & 15) != 0 || (minBuildHeight & 15) != 0) {
+            throw new IllegalArgumentException("Invalid min_y " + minBuildHeight + " or height " + height + ", both must be multiples of 16");
+        }
+        return new OfflineRelighter(dimensionDirectory, minBuildHeight, height, hasSkyLight, threads);
+    }
+
+    // returns false if any region failed
+    public boolean run() throws IOException, InterruptedException {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+        this.dataVersion = SharedConstants.getCurrentVersion().getDataVersion().getVersion();
+        this.blockStateCodec = PalettedContainer.codecRW(
+                Block.BLOCK_STATE_REGISTRY, BlockState.CODEC, PalettedContainer.Strategy.SECTION_STATES, Blocks.AIR.defaultBlockState()
+        );
+        this.biomes.add(this.biome);
+
+        final LongList regions = new LongArrayList();
+        try (final Stream<Path> files = Files.list(this.regionDirectory)) {
+            files.forEach((final Path file) -> {
+                final Matcher matcher = REGION_FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    regions.add(CoordinateUtils.getChunkKey(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))));
+                }
+            });
+        }
+
+        LOGGER.info("Relighting " + regions.size() + " region files in " + this.regionDirectory + " using " + this.threads + " threads");
+
+        final long start = System.nanoTime();
+        boolean failed = false;
+        final AtomicInteger threadCounter = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(this.threads, (final Runnable run) -> {
+            final Thread thread = new Thread(run);
+            thread.setName("Starlight Offline Relight Thread #" + threadCounter.getAndIncrement());
+            return thread;
+        });
+
+        try {
+            // parity = (regionX & 1) | ((regionZ & 1) << 1)
+            for (int parity = 0; parity < 4; ++parity) {
+                final List<Future<?>> futures = new ArrayList<>();
+                final LongList submitted = new LongArrayList();
+                for (int i = 0, len = regions.size(); i < len; ++i) {
+                    final long region = regions.getLong(i);
+                    final int regionX = CoordinateUtils.getChunkX(region);
+                    final int regionZ = CoordinateUtils.getChunkZ(region);
+                    if (((regionX & 1) | ((regionZ & 1) << 1)) != parity) {
+                        continue;
+                    }
+                    submitted.add(region);
+                    futures.add(executor.submit(() -> {
+                        this.relightRegion(regionX, regionZ, regions.size(), start);
+                        return null;
+                    }));
+                }
+
+                // every region of this parity must be written before its neighbours can be read
+                for (int i = 0, len = futures.size(); i < len; ++i) {
+                    try {
+                        futures.get(i).get();
+                    } catch (final ExecutionException ex) {
+                        failed = true;
+                        final long region = submitted.getLong(i);
+                        LOGGER.error("Failed to relight region r." + CoordinateUtils.getChunkX(region) + "."
+                                + CoordinateUtils.getChunkZ(region) + ".mca, its chunks will be relit when loaded", ex.getCause());
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        final double seconds = (double)(System.nanoTime() - start) * 1.0E-9;
+        LOGGER.info("Relit " + this.relitChunks.get() + " chunks in " + String.format("%.1f", seconds) + "s");
+
+        return !failed;
+    }
+
+    private void relightRegion(final int regionX, final int regionZ, final int totalRegions, final long start) throws IOException {
+        final Long2ObjectOpenHashMap<RegionFile> regionFiles = new Long2ObjectOpenHashMap<>();
+        try {
+            final Long2ObjectOpenHashMap<ChunkAccess> chunks = new Long2ObjectOpenHashMap<>();
+            final Set<ChunkPos> toRelight = new LinkedHashSet<>();
+
+            final int minChunkX = regionX << REGION_SHIFT;
+            final int minChunkZ = regionZ << REGION_SHIFT;
+
+            for (int chunkZ = minChunkZ; chunkZ < minChunkZ + REGION_SIZE; ++chunkZ) {
+                for (int chunkX = minChunkX; chunkX < minChunkX + REGION_SIZE; ++chunkX) {
+                    final CompoundTag tag = this.readChunk(regionFiles, chunkX, chunkZ);
+                    final ChunkAccess chunk = tag == null ? null : this.parseChunk(tag, chunkX, chunkZ);
+                    if (chunk == null) {
+                        continue;
+                    }
+                    chunks.put(CoordinateUtils.getChunkKey(chunkX, chunkZ), chunk);
+                    if (!SaveUtil.hasCurrentLight(tag)) {
+                        toRelight.add(chunk.getPos());
+                    }
+                }
+            }
+
+            if (!toRelight.isEmpty()) {
+                // the border is only read, to light the edges of the region
+                for (int chunkZ = minChunkZ - 1; chunkZ <= minChunkZ + REGION_SIZE; ++chunkZ) {
+                    for (int chunkX = minChunkX - 1; chunkX <= minChunkX + REGION_SIZE; ++chunkX) {
+                        if ((chunkX >> REGION_SHIFT) == regionX && (chunkZ >> REGION_SHIFT) == regionZ) {
+                            continue;
+                        }
+                        final CompoundTag tag = this.readChunk(regionFiles, chunkX, chunkZ);
+                        final ChunkAccess chunk = tag == null ? null : this.parseChunk(tag, chunkX, chunkZ);
+                        if (chunk != null) {
+                            chunks.put(CoordinateUtils.getChunkKey(chunkX, chunkZ), chunk);
+                        }
+                    }
+                }
+
+                this.relightChunks(regionFiles, chunks, toRelight);
+            }
+        } finally {
+            for (final RegionFile regionFile : regionFiles.values()) {
+                if (regionFile != null) {
+                    regionFile.close();
+                }
+            }
+        }
+
+        final int finished = this.finishedRegions.incrementAndGet();
+        final double seconds = (double)(System.nanoTime() - start) * 1.0E-9;
+        LOGGER.info("Relit region r." + regionX + "." + regionZ + ".mca (" + finished + "/" + totalRegions + "), "
+                + String.format("%.1f", seconds <= 0.0 ? 0.0 : (double)this.relitChunks.get() / seconds) + " chunks/s");
+    }
+
+    private void relightChunks(final Long2ObjectOpenHashMap<RegionFile> regionFiles, final Long2ObjectOpenHashMap<ChunkAccess> chunks,
+                               final Set<ChunkPos> toRelight) throws IOException {
+        final LightChunkGetter lightAccess = new LightChunkGetter() {
+            @Override
+            public LightChunk getChunkForLighting(final int chunkX, final int chunkZ) {
+                return chunks.get(CoordinateUtils.getChunkKey(chunkX, chunkZ));
+            }
+
+            @Override
+            public BlockGetter getLevel() {
+                return EmptyBlockGetter.INSTANCE;
+            }
+        };
+
+        if (this.hasSkyLight) {
+            new SkyStarLightEngine(this.height, false).relightChunks(lightAccess, toRelight, null, null);
+        }
+
+        // sky light is complete for every chunk by now, so a chunk can be written as soon as its block light is
+        final IOException[] thrown = new IOException[1];
+        new BlockStarLightEngine(this.height, false).relightChunks(lightAccess, toRelight, (final ChunkPos pos) -> {
+            if (thrown[0] != null) {
+                return;
+            }
+            try {
+                this.writeChunk(regionFiles, chunks.get(CoordinateUtils.getChunkKey(pos)));
+            } catch (final IOException ex) {
+                thrown[0] = ex;
+            }
+        }, null);
+
+        if (thrown[0] != null) {
+            throw thrown[0];
+        }
+    }
+
+    private void writeChunk(final Long2ObjectOpenHashMap<RegionFile> regionFiles, final ChunkAccess chunk) throws IOException {
+        final ChunkPos pos = chunk.getPos();
+        // the full tag is read again instead of kept from parsing, so that only the block data of the region is in memory
+        final CompoundTag tag = this.readChunk(regionFiles, pos.x, pos.z);
+        if (tag == null) {
+            return;
+        }
+
+        SaveUtil.saveLightHook(this.height, chunk, tag);
+
+        final RegionFile regionFile = this.getRegionFile(regionFiles, pos.x >> REGION_SHIFT, pos.z >> REGION_SHIFT);
+        try (final DataOutputStream out = regionFile.getChunkDataOutputStream(pos)) {
+            NbtIo.write(tag, out);
+        }
+
+        // the light is saved, and the relight never reads the nibbles stored on the chunk
+        ((ExtendedChunk)chunk).setBlockNibbles(StarLightEngine.getFilledEmptyLight(this.height));
+        ((ExtendedChunk)chunk).setSkyNibbles(StarLightEngine.getFilledEmptyLight(this.height));
+
+        this.relitChunks.getAndIncrement();
+    }
+
+    private RegionFile getRegionFile(final Long2ObjectOpenHashMap<RegionFile> regionFiles, final int regionX,
+                                     final int regionZ) throws IOException {
+        final long key = CoordinateUtils.getChunkKey(regionX, regionZ);
+        if (regionFiles.containsKey(key)) {
+            return regionFiles.get(key);
+        }
+
+        final Path file = this.regionDirectory.resolve("r." + regionX + "." + regionZ + ".mca");
+        // do not create region files for missing neighbours
+        final RegionFile ret = Files.isRegularFile(file) ? new RegionFile(file, this.regionDirectory, false) : null;
+        regionFiles.put(key, ret);
+        return ret;
+    }
+
+    private CompoundTag readChunk(final Long2ObjectOpenHashMap<RegionFile> regionFiles, final int chunkX,
+                                  final int chunkZ) throws IOException {
+        final RegionFile regionFile = this.getRegionFile(regionFiles, chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT);
+        if (regionFile == null) {
+            return null;
+        }
+
+        try (final DataInputStream in = regionFile.getChunkDataInputStream(new ChunkPos(chunkX, chunkZ))) {
+            return in == null ? null : NbtIo.read(in);
+        }
+    }
+
+    // returns null if the chunk cannot be lit
+    private ChunkAccess parseChunk(final CompoundTag tag, final int chunkX, final int chunkZ) {
+        if (tag.getInt("DataVersion") != this.dataVersion) {
+            // only the server can datafix
+            return null;
+        }
+
+        final ChunkStatus status = ChunkStatus.byName(tag.getString("Status"));
+        if (!status.isOrAfter(ChunkStatus.LIGHT)) {
+            return null;
+        }
+
+        final int minSection = WorldUtil.getMinSection(this.height);
+        final LevelChunkSection[] sections = new LevelChunkSection[WorldUtil.getTotalSections(this.height)];
+
+        final ListTag sectionTags = tag.getList("sections", 10);
+        for (int i = 0, len = sectionTags.size(); i < len; ++i) {
+            final CompoundTag sectionTag = sectionTags.getCompound(i);
+            final int index = sectionTag.getByte("Y") - minSection;
+            if (index < 0 || index >= sections.length || !sectionTag.contains("block_states", 10)) {
+                continue;
+            }
+
+            final PalettedContainer<BlockState> blockStates = this.blockStateCodec.parse(NbtOps.INSTANCE, sectionTag.getCompound("block_states"))
+                    .result().orElse(null);
+            if (blockStates == null) {
+                // leave corrupt chunks to the server
+                return null;
+            }
+
+            sections[index] = new LevelChunkSection(blockStates, this.createBiomes());
+        }
+
+        for (int i = 0; i < sections.length; ++i) {
+            if (sections[i] == null) {
+                sections[i] = new LevelChunkSection(
+                        new PalettedContainer<>(Block.BLOCK_STATE_REGISTRY, Blocks.AIR.defaultBlockState(), PalettedContainer.Strategy.SECTION_STATES),
+                        this.createBiomes()
+                );
+            }
+        }
+
+        final ProtoChunk ret = new ProtoChunk(
+                new ChunkPos(chunkX, chunkZ), UpgradeData.EMPTY, sections, new ProtoChunkTicks<>(), new ProtoChunkTicks<>(),
+                this.height, null, null
+        );
+        ret.setStatus(status);
+        ret.setLightCorrect(true);
+
+        return ret;
+    }
+
+    private PalettedContainer<Holder<Biome>> createBiomes() {
+        return new PalettedContainer<>(this.biomes, this.biome, PalettedContainer.Strategy.SECTION_BIOMES);
+    }
+}
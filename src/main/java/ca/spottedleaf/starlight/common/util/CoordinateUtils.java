@@ -122,6 +122,18 @@ public final class CoordinateUtils {
         return ((long)entity.getX() & 0x7FFFFFF) | (((long)entity.getZ() & 0x7FFFFFF) << 27) | ((long)entity.getY() << 54);
     }
 
+    public static int getBlockX(final long blockKey) {
+        return (int)(blockKey << (Long.SIZE - 27) >> (Long.SIZE - 27));
+    }
+
+    public static int getBlockY(final long blockKey) {
+        return (int)(blockKey >> 54);
+    }
+
+    public static int getBlockZ(final long blockKey) {
+        return (int)(blockKey << (Long.SIZE - (27 + 27)) >> (Long.SIZE - 27));
+    }
+
     private CoordinateUtils() {
         throw new RuntimeException();
     }
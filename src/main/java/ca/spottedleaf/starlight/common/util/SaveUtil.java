@@ -1,23 +1,31 @@
 package ca.spottedleaf.starlight.common.util;
 
 import ca.spottedleaf.starlight.common.chunk.ExtendedChunk;
+import ca.spottedleaf.starlight.common.config.StarlightConfig;
+import ca.spottedleaf.starlight.common.light.EdgeFingerprints;
 import ca.spottedleaf.starlight.common.light.SWMRNibbleArray;
-import ca.spottedleaf.starlight.common.light.StarLightEngine;
+import ca.spottedleaf.starlight.common.world.ExtendedWorld;
 import com.mojang.logging.LogUtils;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.LevelHeightAccessor;
 import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.ChunkStatus;
 import org.slf4j.Logger;
+import java.util.Arrays;
 
 public final class SaveUtil {
 
     private static final Logger LOGGER = LogUtils.getLogger();
 
-    private static final int STARLIGHT_LIGHT_VERSION = 9;
+    private static final int STARLIGHT_LIGHT_VERSION = 10;
+    // oldest light version whose data is still valid, light versions from here to the current version only differ
+    // in their encoding
+    // 9 -> 10: uniform and run-length encoded nibbles
+    private static final int MIN_COMPATIBLE_LIGHT_VERSION = 9;
 
     public static int getLightVersion() {
         return STARLIGHT_LIGHT_VERSION;
@@ -26,8 +34,17 @@ public final class SaveUtil {
     private static final String BLOCKLIGHT_STATE_TAG = "starlight.blocklight_state";
     private static final String SKYLIGHT_STATE_TAG = "starlight.skylight_state";
     private static final String STARLIGHT_VERSION_TAG = "starlight.light_version";
-
-    public static void saveLightHook(final Level world, final ChunkAccess chunk, final CompoundTag nbt) {
+    // nibble value of a section where every position has the same light level, stored instead of the vanilla array
+    private static final String BLOCKLIGHT_UNIFORM_TAG = "starlight.blocklight_uniform";
+    private static final String SKYLIGHT_UNIFORM_TAG = "starlight.skylight_uniform";
+    // (run length - 1, byte) pairs over the vanilla array, stored instead of it when smaller
+    private static final String BLOCKLIGHT_RLE_TAG = "starlight.blocklight_rle";
+    private static final String SKYLIGHT_RLE_TAG = "starlight.skylight_rle";
+    // EdgeFingerprints of the neighbours when the chunk was saved, indexed by direction
+    private static final String EDGE_FINGERPRINTS_TAG = "starlight.edge_fingerprints";
+
+    // world does not need to be a Level, see OfflineRelighter
+    public static void saveLightHook(final LevelHeightAccessor world, final ChunkAccess chunk, final CompoundTag nbt) {
         try {
             saveLightHookReal(world, chunk, nbt);
         } catch (final Throwable ex) {
@@ -40,7 +57,7 @@ public final class SaveUtil {
         }
     }
 
-    private static void saveLightHookReal(final Level world, final ChunkAccess chunk, final CompoundTag tag) {
+    private static void saveLightHookReal(final LevelHeightAccessor world, final ChunkAccess chunk, final CompoundTag tag) {
         if (tag == null) {
             return;
         }
@@ -70,6 +87,10 @@ public final class SaveUtil {
             // strip light data
             sectionStored.remove("BlockLight");
             sectionStored.remove("SkyLight");
+            sectionStored.remove(BLOCKLIGHT_UNIFORM_TAG);
+            sectionStored.remove(SKYLIGHT_UNIFORM_TAG);
+            sectionStored.remove(BLOCKLIGHT_RLE_TAG);
+            sectionStored.remove(SKYLIGHT_RLE_TAG);
 
             if (!sectionStored.isEmpty()) {
                 sections[k - minSection] = sectionStored;
@@ -78,6 +99,9 @@ public final class SaveUtil {
 
         if (lit && status.isOrAfter(ChunkStatus.LIGHT)) {
             for (int i = minSection; i <= maxSection; ++i) {
+                // read before the save state, so that a change racing with the save leaves the nibble dirty
+                final long blockGeneration = blockNibbles[i - minSection].getVisibleGeneration();
+                final long skyGeneration = skyNibbles[i - minSection].getVisibleGeneration();
                 SWMRNibbleArray.SaveState blockNibble = blockNibbles[i - minSection].getSaveState();
                 SWMRNibbleArray.SaveState skyNibble = skyNibbles[i - minSection].getSaveState();
                 if (blockNibble != null || skyNibble != null) {
@@ -96,18 +120,21 @@ public final class SaveUtil {
 
                     if (blockNibble != null) {
                         if (blockNibble.data != null) {
-                            section.putByteArray("BlockLight", blockNibble.data);
+                            writeNibble(section, blockNibble, "BlockLight", BLOCKLIGHT_UNIFORM_TAG, BLOCKLIGHT_RLE_TAG);
                         }
                         section.putInt(BLOCKLIGHT_STATE_TAG, blockNibble.state);
                     }
 
                     if (skyNibble != null) {
                         if (skyNibble.data != null) {
-                            section.putByteArray("SkyLight", skyNibble.data);
+                            writeNibble(section, skyNibble, "SkyLight", SKYLIGHT_UNIFORM_TAG, SKYLIGHT_RLE_TAG);
                         }
                         section.putInt(SKYLIGHT_STATE_TAG, skyNibble.state);
                     }
                 }
+
+                blockNibbles[i - minSection].markSaved(blockGeneration);
+                skyNibbles[i - minSection].markSaved(skyGeneration);
             }
         }
 
@@ -119,14 +146,179 @@ public final class SaveUtil {
             }
         }
         tag.put("sections", sectionsStored);
+        tag.remove(EDGE_FINGERPRINTS_TAG);
+        if (lit && StarlightConfig.EDGE_FINGERPRINTS && world instanceof ExtendedWorld && status.isOrAfter(ChunkStatus.LIGHT)) {
+            final ChunkPos pos = chunk.getPos();
+            tag.putLongArray(EDGE_FINGERPRINTS_TAG, EdgeFingerprints.fingerprintNeighbours(world, pos.x, pos.z, (final long key) -> {
+                return ((ExtendedWorld)world).getAnyChunkImmediately(CoordinateUtils.getChunkX(key), CoordinateUtils.getChunkZ(key));
+            }));
+        }
         if (lit) {
             tag.putInt(STARLIGHT_VERSION_TAG, STARLIGHT_LIGHT_VERSION); // only mark as fully lit after we have successfully injected our data
         }
     }
 
+    /**
+     * Returns whether any light of the chunk changed since it was last written by {@link #saveLightHook}. Chunks
+     * whose only unsaved change is light can be identified with this, and chunks without unsaved light do not need
+     * their light written again if the previous save data is kept.
+     */
+    public static boolean hasUnsavedLight(final ChunkAccess chunk) {
+        return hasUnsavedLight(((ExtendedChunk)chunk).getBlockNibbles()) || hasUnsavedLight(((ExtendedChunk)chunk).getSkyNibbles());
+    }
+
+    private static boolean hasUnsavedLight(final SWMRNibbleArray[] nibbles) {
+        if (nibbles == null) {
+            return false;
+        }
+        for (final SWMRNibbleArray nibble : nibbles) {
+            if (nibble != null && nibble.isDirtySinceSave()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final int ENCODING_RAW = 0;
+    private static final int ENCODING_UNIFORM = 1;
+    private static final int ENCODING_RLE = 2;
+
+    private static final class EncodedNibble {
+
+        public final int encoding;
+        public final byte uniformLevel;
+        public final byte[] data;
+
+        public EncodedNibble(final int encoding, final byte uniformLevel, final byte[] data) {
+            this.encoding = encoding;
+            this.uniformLevel = uniformLevel;
+            this.data = data;
+        }
+    }
+
+    private static void writeNibble(final CompoundTag section, final SWMRNibbleArray.SaveState saveState, final String rawTag,
+                                    final String uniformTag, final String rleTag) {
+        EncodedNibble encoded = (EncodedNibble)saveState.encoded;
+        if (encoded == null) {
+            // racing saves may both encode, but they produce the same result
+            saveState.encoded = encoded = encodeNibble(saveState.data);
+        }
+
+        switch (encoded.encoding) {
+            case ENCODING_UNIFORM:
+                section.putByte(uniformTag, encoded.uniformLevel);
+                break;
+            case ENCODING_RLE:
+                section.putByteArray(rleTag, encoded.data);
+                break;
+            default:
+                section.putByteArray(rawTag, encoded.data);
+                break;
+        }
+    }
+
+    private static EncodedNibble encodeNibble(final byte[] data) {
+        final int sharedLevel = SWMRNibbleArray.getSharedUniformLevel(data);
+        if (sharedLevel != -1) {
+            return new EncodedNibble(ENCODING_UNIFORM, (byte)sharedLevel, null);
+        }
+
+        final byte first = data[0];
+        if ((first & 0xF) == ((first >>> 4) & 0xF)) {
+            boolean uniform = true;
+            for (int i = 1; i < data.length; ++i) {
+                if (data[i] != first) {
+                    uniform = false;
+                    break;
+                }
+            }
+            if (uniform) {
+                return new EncodedNibble(ENCODING_UNIFORM, (byte)(first & 0xF), null);
+            }
+        }
+
+        final byte[] rle = encodeRLE(data);
+        if (rle != null) {
+            return new EncodedNibble(ENCODING_RLE, (byte)0, rle);
+        } else {
+            return new EncodedNibble(ENCODING_RAW, (byte)0, data);
+        }
+    }
+
+    // returns null if the encoding would not be smaller than the data
+    private static byte[] encodeRLE(final byte[] data) {
+        final byte[] ret = new byte[data.length];
+        int length = 0;
+        for (int i = 0, len = data.length; i < len;) {
+            if (length + 2 >= len) {
+                return null;
+            }
+            final byte value = data[i];
+            final int maxRun = Math.min(256, len - i);
+            int run = 1;
+            while (run < maxRun && data[i + run] == value) {
+                ++run;
+            }
+            ret[length++] = (byte)(run - 1);
+            ret[length++] = value;
+            i += run;
+        }
+
+        return Arrays.copyOf(ret, length);
+    }
+
+    private static byte[] decodeRLE(final byte[] rle) {
+        final byte[] ret = new byte[SWMRNibbleArray.ARRAY_SIZE];
+        int index = 0;
+        for (int i = 0, len = rle.length & ~1; i < len; i += 2) {
+            final int run = (rle[i] & 0xFF) + 1;
+            if (index + run > ret.length) {
+                throw new IllegalStateException("Run-length encoded light data is too long");
+            }
+            Arrays.fill(ret, index, index += run, rle[i + 1]);
+        }
+        if (index != ret.length) {
+            throw new IllegalStateException("Run-length encoded light data is too short: " + index);
+        }
+        return ret;
+    }
+
+    // returns null if the section has no data for the nibble
+    private static byte[] readNibble(final CompoundTag section, final String rawTag, final String uniformTag, final String rleTag) {
+        if (section.contains(rawTag, 7)) {
+            return section.getByteArray(rawTag);
+        }
+        if (section.contains(uniformTag, 1)) {
+            // shared, copied on the first write
+            return SWMRNibbleArray.getUniformBytes(section.getByte(uniformTag) & 0xF);
+        }
+        if (section.contains(rleTag, 7)) {
+            return decodeRLE(section.getByteArray(rleTag));
+        }
+        return null;
+    }
+
+    // whether the saved chunk has light data which is valid for the current light version
+    public static boolean hasCurrentLight(final CompoundTag tag) {
+        if (tag.get("isLightOn") == null) {
+            return false;
+        }
+        final int version = tag.getInt(STARLIGHT_VERSION_TAG);
+        return version >= MIN_COMPATIBLE_LIGHT_VERSION && version <= STARLIGHT_LIGHT_VERSION;
+    }
+
     public static void loadLightHook(final Level world, final ChunkPos pos, final CompoundTag tag, final ChunkAccess into) {
+        loadLightHook(world, pos, tag, into, false);
+    }
+
+    /**
+     * If {@code ownsTag} is {@code true}, the caller guarantees that neither the tag nor its light arrays are used after
+     * this call, and the arrays are used as the nibble storage directly instead of being copied.
+     */
+    public static void loadLightHook(final Level world, final ChunkPos pos, final CompoundTag tag, final ChunkAccess into,
+                                     final boolean ownsTag) {
         try {
-            loadLightHookReal(world, pos, tag, into);
+            loadLightHookReal(world, pos, tag, into, ownsTag);
         } catch (final Throwable ex) {
             // failing to inject is not fatal so we catch anything here. if it fails, then we simply relight. Not a problem, we get correct
             // lighting in both cases.
@@ -137,7 +329,8 @@ public final class SaveUtil {
         }
     }
 
-    private static void loadLightHookReal(final Level world, final ChunkPos pos, final CompoundTag tag, final ChunkAccess into) {
+    private static void loadLightHookReal(final Level world, final ChunkPos pos, final CompoundTag tag, final ChunkAccess into,
+                                          final boolean ownsTag) {
         if (into == null) {
             return;
         }
@@ -146,12 +339,12 @@ public final class SaveUtil {
 
         into.setLightCorrect(false); // mark as unlit in case we fail parsing
 
-        SWMRNibbleArray[] blockNibbles = StarLightEngine.getFilledEmptyLight(world);
-        SWMRNibbleArray[] skyNibbles = StarLightEngine.getFilledEmptyLight(world);
-
+        // sections not in the tag are filled with null nibbles afterwards, so that nothing is allocated only to be replaced
+        SWMRNibbleArray[] blockNibbles = new SWMRNibbleArray[WorldUtil.getTotalLightSections(world)];
+        SWMRNibbleArray[] skyNibbles = new SWMRNibbleArray[WorldUtil.getTotalLightSections(world)];
 
         // start copy from the original method
-        boolean lit = tag.get("isLightOn") != null && tag.getInt(STARLIGHT_VERSION_TAG) == STARLIGHT_LIGHT_VERSION;
+        boolean lit = hasCurrentLight(tag);
         boolean canReadSky = world.dimensionType().hasSkyLight();
         ChunkStatus status = ChunkStatus.byName(tag.getString("Status"));
         if (lit && status.isOrAfter(ChunkStatus.LIGHT)) { // diff - we add the status check here
@@ -161,21 +354,24 @@ public final class SaveUtil {
                 CompoundTag sectionData = sections.getCompound(i);
                 int y = sectionData.getByte("Y");
 
-                if (sectionData.contains("BlockLight", 7)) {
-                    // this is where our diff is
-                    blockNibbles[y - minSection] = new SWMRNibbleArray(sectionData.getByteArray("BlockLight").clone(), sectionData.getInt(BLOCKLIGHT_STATE_TAG)); // clone for data safety
+                // this is where our diff is
+                final byte[] blockData = readNibble(sectionData, "BlockLight", BLOCKLIGHT_UNIFORM_TAG, BLOCKLIGHT_RLE_TAG);
+                if (blockData != null) {
+                    // decoded arrays are already ours, only the raw array needs to be cloned for data safety
+                    blockNibbles[y - minSection] = new SWMRNibbleArray(!ownsTag && sectionData.contains("BlockLight", 7) ? blockData.clone() : blockData, sectionData.getInt(BLOCKLIGHT_STATE_TAG));
                 } else {
                     blockNibbles[y - minSection] = new SWMRNibbleArray(null, sectionData.getInt(BLOCKLIGHT_STATE_TAG));
                 }
 
                 if (canReadSky) {
-                    if (sectionData.contains("SkyLight", 7)) {
-                        // we store under the same key so mod programs editing nbt
-                        // can still read the data, hopefully.
-                        // however, for compatibility we store chunks as unlit so vanilla
-                        // is forced to re-light them if it encounters our data. It's too much of a burden
-                        // to try and maintain compatibility with a broken and inferior skylight management system.
-                        skyNibbles[y - minSection] = new SWMRNibbleArray(sectionData.getByteArray("SkyLight").clone(), sectionData.getInt(SKYLIGHT_STATE_TAG)); // clone for data safety
+                    // we store under the same key so mod programs editing nbt
+                    // can still read the data, hopefully.
+                    // however, for compatibility we store chunks as unlit so vanilla
+                    // is forced to re-light them if it encounters our data. It's too much of a burden
+                    // to try and maintain compatibility with a broken and inferior skylight management system.
+                    final byte[] skyData = readNibble(sectionData, "SkyLight", SKYLIGHT_UNIFORM_TAG, SKYLIGHT_RLE_TAG);
+                    if (skyData != null) {
+                        skyNibbles[y - minSection] = new SWMRNibbleArray(!ownsTag && sectionData.contains("SkyLight", 7) ? skyData.clone() : skyData, sectionData.getInt(SKYLIGHT_STATE_TAG));
                     } else {
                         skyNibbles[y - minSection] = new SWMRNibbleArray(null, sectionData.getInt(SKYLIGHT_STATE_TAG));
                     }
@@ -184,8 +380,23 @@ public final class SaveUtil {
         }
         // end copy from vanilla
 
+        for (int i = 0; i < blockNibbles.length; ++i) {
+            if (blockNibbles[i] == null) {
+                blockNibbles[i] = new SWMRNibbleArray(null, true);
+            }
+            if (skyNibbles[i] == null) {
+                skyNibbles[i] = new SWMRNibbleArray(null, true);
+            }
+        }
+
         ((ExtendedChunk)into).setBlockNibbles(blockNibbles);
         ((ExtendedChunk)into).setSkyNibbles(skyNibbles);
+        if (lit && StarlightConfig.EDGE_FINGERPRINTS && tag.contains(EDGE_FINGERPRINTS_TAG, 12)) {
+            final long[] fingerprints = tag.getLongArray(EDGE_FINGERPRINTS_TAG);
+            if (fingerprints.length == EdgeFingerprints.DIRECTIONS) {
+                ((ExtendedChunk)into).setEdgeFingerprints(fingerprints);
+            }
+        }
         into.setLightCorrect(lit); // now we set lit here, only after we've correctly parsed data
     }
 
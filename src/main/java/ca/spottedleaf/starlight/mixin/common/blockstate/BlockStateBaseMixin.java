@@ -1,13 +1,20 @@
 package ca.spottedleaf.starlight.mixin.common.blockstate;
 
 import ca.spottedleaf.starlight.common.blockstate.ExtendedAbstractBlockState;
+import ca.spottedleaf.starlight.common.blockstate.FaceOcclusionCache;
+import ca.spottedleaf.starlight.common.blockstate.LightProperties;
 import com.google.common.collect.ImmutableMap;
 import com.mojang.serialization.MapCodec;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.EmptyBlockGetter;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockBehaviour;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.block.state.StateHolder;
 import net.minecraft.world.level.block.state.properties.Property;
+import net.minecraft.world.phys.shapes.Shapes;
+import net.minecraft.world.phys.shapes.VoxelShape;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
@@ -36,6 +43,12 @@ public abstract class BlockStateBaseMixin extends StateHolder<Block, BlockState>
     @Unique
     private boolean isConditionallyFullOpaque;
 
+    @Unique
+    private int lightProperties;
+
+    @Unique
+    private int[] lightFaceIds;
+
     protected BlockStateBaseMixin(final Block object, final ImmutableMap<Property<?>, Comparable<?>> immutableMap, final MapCodec<BlockState> mapCodec) {
         super(object, immutableMap, mapCodec);
     }
@@ -50,6 +63,32 @@ public abstract class BlockStateBaseMixin extends StateHolder<Block, BlockState>
     public void initLightAccessState(final CallbackInfo ci) {
         this.isConditionallyFullOpaque = this.canOcclude & this.useShapeForLightOcclusion;
         this.opacityIfCached = this.cache == null || this.isConditionallyFullOpaque ? -1 : this.cache.lightBlock;
+
+        final BlockState state = (BlockState)(Object)this;
+        int fullFaces = 0;
+        int[] faceIds = null;
+        if (this.isConditionallyFullOpaque && this.cache != null) {
+            // faces are cached, so they do not depend on the world or position
+            faceIds = new int[Direction.values().length];
+            for (final Direction direction : Direction.values()) {
+                final VoxelShape face = state.getFaceOcclusionShape(EmptyBlockGetter.INSTANCE, BlockPos.ZERO, direction);
+                if (Shapes.faceShapeOccludes(Shapes.empty(), face)) {
+                    fullFaces |= 1 << direction.ordinal();
+                }
+                faceIds[direction.ordinal()] = FaceOcclusionCache.getFaceId(face);
+            }
+        }
+        this.lightFaceIds = faceIds;
+        this.lightProperties = LightProperties.pack(
+                this.cache == null ? 0 : this.cache.lightBlock, state.getLightEmission(),
+                this.isConditionallyFullOpaque, this.cache == null, fullFaces
+        );
+
+        // the registry id is assigned before initCache is first called
+        final int id = Block.BLOCK_STATE_REGISTRY.getId(state);
+        if (id != -1) {
+            LightProperties.setById(id, this.lightProperties);
+        }
     }
 
     @Override
@@ -61,4 +100,14 @@ public abstract class BlockStateBaseMixin extends StateHolder<Block, BlockState>
     public final int getOpacityIfCached() {
         return this.opacityIfCached;
     }
+
+    @Override
+    public final int getLightProperties() {
+        return this.lightProperties;
+    }
+
+    @Override
+    public final int[] getLightFaceIds() {
+        return this.lightFaceIds;
+    }
 }
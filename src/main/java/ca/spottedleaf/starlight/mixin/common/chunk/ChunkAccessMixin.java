@@ -39,6 +39,9 @@ public abstract class ChunkAccessMixin implements ExtendedChunk {
     @Unique
     private volatile boolean[] blockEmptinessMap;
 
+    @Unique
+    private volatile long[] edgeFingerprints;
+
     @Override
     public SWMRNibbleArray[] getBlockNibbles() {
         return this.blockNibbles;
@@ -79,6 +82,16 @@ public abstract class ChunkAccessMixin implements ExtendedChunk {
         this.blockEmptinessMap = emptinessMap;
     }
 
+    @Override
+    public long[] getEdgeFingerprints() {
+        return this.edgeFingerprints;
+    }
+
+    @Override
+    public void setEdgeFingerprints(final long[] fingerprints) {
+        this.edgeFingerprints = fingerprints;
+    }
+
     /**
      * @reason Remove unused skylight sources, and initialise nibble arrays.
      * @author Spottedleaf
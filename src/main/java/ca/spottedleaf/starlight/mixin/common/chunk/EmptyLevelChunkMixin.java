@@ -47,4 +47,12 @@ public abstract class EmptyLevelChunkMixin extends LevelChunk implements Extende
 
     @Override
     public void setBlockEmptinessMap(final boolean[] emptinessMap) {}
+
+    @Override
+    public long[] getEdgeFingerprints() {
+        return null;
+    }
+
+    @Override
+    public void setEdgeFingerprints(final long[] fingerprints) {}
 }
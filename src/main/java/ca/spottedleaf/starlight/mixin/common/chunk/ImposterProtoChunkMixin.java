@@ -62,4 +62,14 @@ public abstract class ImposterProtoChunkMixin extends ProtoChunk implements Exte
     public void setBlockEmptinessMap(final boolean[] emptinessMap) {
         ((ExtendedChunk)this.wrapped).setBlockEmptinessMap(emptinessMap);
     }
+
+    @Override
+    public long[] getEdgeFingerprints() {
+        return ((ExtendedChunk)this.wrapped).getEdgeFingerprints();
+    }
+
+    @Override
+    public void setEdgeFingerprints(final long[] fingerprints) {
+        ((ExtendedChunk)this.wrapped).setEdgeFingerprints(fingerprints);
+    }
 }
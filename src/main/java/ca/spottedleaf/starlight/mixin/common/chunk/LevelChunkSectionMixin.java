@@ -0,0 +1,130 @@
+package ca.spottedleaf.starlight.mixin.common.chunk;
+
+import ca.spottedleaf.starlight.common.chunk.ExtendedChunkSection;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+@Mixin(LevelChunkSection.class)
+public abstract class LevelChunkSectionMixin implements ExtendedChunkSection {
+
+    @Shadow
+    @Final
+    private PalettedContainer<BlockState> states;
+
+    // only allocated while the section has light sources, as most sections have none
+    @Unique
+    private long[] lightSourceBitset;
+
+    @Unique
+    private int lightSourceCount;
+
+    @Override
+    public final long[] getLightSourceBitset() {
+        return this.lightSourceBitset;
+    }
+
+    @Override
+    public final int getLightSourceCount() {
+        return this.lightSourceCount;
+    }
+
+    @Unique
+    private void rebuildLightSources() {
+        this.lightSourceBitset = null;
+        this.lightSourceCount = 0;
+
+        if (!this.states.maybeHas((final BlockState state) -> {
+            return state.getLightEmission() > 0;
+        })) {
+            // no light sources in palette
+            return;
+        }
+
+        final PalettedContainer<BlockState> states = this.states;
+        final long[] bitset = new long[(16 * 16 * 16) / Long.SIZE];
+        int count = 0;
+        for (int index = 0; index < (16 * 16 * 16); ++index) {
+            if (states.get(index).getLightEmission() > 0) {
+                bitset[index >>> 6] |= 1L << index;
+                ++count;
+            }
+        }
+        if (count != 0) {
+            this.lightSourceBitset = bitset;
+        }
+        this.lightSourceCount = count;
+    }
+
+    /**
+     * @reason Keep the light source index up to date with block changes
+     * @author Spottedleaf
+     */
+    @Inject(
+            method = "setBlockState(IIILnet/minecraft/world/level/block/state/BlockState;Z)Lnet/minecraft/world/level/block/state/BlockState;",
+            at = @At(
+                    value = "RETURN"
+            )
+    )
+    private void updateLightSources(final int x, final int y, final int z, final BlockState state, final boolean lock,
+                                    final CallbackInfoReturnable<BlockState> cir) {
+        final BlockState oldState = cir.getReturnValue();
+        final boolean wasSource = oldState.getLightEmission() > 0;
+        final boolean isSource = state.getLightEmission() > 0;
+        if (wasSource == isSource) {
+            return;
+        }
+
+        final int index = x | (z << 4) | (y << 8);
+        if (isSource) {
+            long[] bitset = this.lightSourceBitset;
+            if (bitset == null) {
+                this.lightSourceBitset = bitset = new long[(16 * 16 * 16) / Long.SIZE];
+            }
+            bitset[index >>> 6] |= 1L << index;
+            ++this.lightSourceCount;
+        } else {
+            if (--this.lightSourceCount == 0) {
+                this.lightSourceBitset = null;
+            } else {
+                this.lightSourceBitset[index >>> 6] &= ~(1L << index);
+            }
+        }
+    }
+
+    /**
+     * @reason Rebuild the light source index whenever the states are replaced
+     * @author Spottedleaf
+     */
+    @Inject(
+            method = "recalcBlockCounts",
+            at = @At(
+                    value = "RETURN"
+            )
+    )
+    private void initLightSources(final CallbackInfo ci) {
+        this.rebuildLightSources();
+    }
+
+    /**
+     * @reason The states are read from the network without recalculating block counts
+     * @author Spottedleaf
+     */
+    @Inject(
+            method = "read",
+            at = @At(
+                    value = "RETURN"
+            )
+    )
+    private void readLightSources(final CallbackInfo ci) {
+        this.rebuildLightSources();
+    }
+}
@@ -0,0 +1,34 @@
+package ca.spottedleaf.starlight.mixin.common.command;
+
+import ca.spottedleaf.starlight.common.command.StarlightCommand;
+import com.mojang.brigadier.CommandDispatcher;
+import net.minecraft.commands.CommandBuildContext;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(Commands.class)
+public abstract class CommandsMixin {
+
+    @Shadow
+    @Final
+    private CommandDispatcher<CommandSourceStack> dispatcher;
+
+    /**
+     * @reason Register our commands, we do not depend on Fabric API
+     * @author Spottedleaf
+     */
+    @Inject(
+            method = "<init>",
+            at = @At("RETURN")
+    )
+    private void registerStarlightCommands(final Commands.CommandSelection selection, final CommandBuildContext context,
+                                           final CallbackInfo ci) {
+        StarlightCommand.register(this.dispatcher);
+    }
+}
@@ -1,6 +1,7 @@
 package ca.spottedleaf.starlight.mixin.common.lightengine;
 
 import ca.spottedleaf.starlight.common.chunk.ExtendedChunk;
+import ca.spottedleaf.starlight.common.config.StarlightConfig;
 import ca.spottedleaf.starlight.common.light.SWMRNibbleArray;
 import ca.spottedleaf.starlight.common.light.StarLightEngine;
 import ca.spottedleaf.starlight.common.light.StarLightInterface;
@@ -96,7 +97,7 @@ public abstract class LevelLightEngineMixin implements LightEventListener, StarL
     public int runLightUpdates() {
         // replace impl
         final boolean hadUpdates = this.hasLightWork();
-        this.lightEngine.propagateChanges();
+        this.lightEngine.propagateChanges(StarlightConfig.PROPAGATION_BUDGET_NANOS, StarlightConfig.PROPAGATION_BUDGET_TASKS);
         return hadUpdates ? 1 : 0;
     }
 
@@ -235,6 +236,7 @@ public abstract class LevelLightEngineMixin implements LightEventListener, StarL
         }
         this.blockLightMap.remove(CoordinateUtils.getChunkKey(chunkPos));
         this.skyLightMap.remove(CoordinateUtils.getChunkKey(chunkPos));
+        this.lightEngine.invalidateReadChunkCaches(chunkPos);
     }
 
     @Override
@@ -251,5 +253,7 @@ public abstract class LevelLightEngineMixin implements LightEventListener, StarL
         if (skyNibbles != null) {
             ((ExtendedChunk)chunk).setSkyNibbles(skyNibbles);
         }
+        // the packet may have replaced a chunk at this position without unloading it first
+        this.lightEngine.invalidateReadChunkCaches(pos);
     }
 }
@@ -1,5 +1,6 @@
 package ca.spottedleaf.starlight.mixin.common.lightengine;
 
+import ca.spottedleaf.starlight.common.config.StarlightConfig;
 import ca.spottedleaf.starlight.common.light.StarLightEngine;
 import ca.spottedleaf.starlight.common.light.StarLightInterface;
 import ca.spottedleaf.starlight.common.light.StarLightLightingProvider;
@@ -11,6 +12,7 @@ import net.minecraft.server.level.ChunkHolder;
 import net.minecraft.server.level.ChunkMap;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ThreadedLevelLightEngine;
+import net.minecraft.util.thread.ProcessorMailbox;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.LightLayer;
 import net.minecraft.world.level.chunk.ChunkAccess;
@@ -25,6 +27,9 @@ import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Overwrite;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 
@@ -39,6 +44,10 @@ public abstract class ThreadedLevelLightEngineMixin extends LevelLightEngine imp
     @Shadow
     private static Logger LOGGER;
 
+    @Final
+    @Shadow
+    private ProcessorMailbox<Runnable> taskMailbox;
+
     @Shadow
     public abstract void tryScheduleUpdate();
 
@@ -113,6 +122,23 @@ public abstract class ThreadedLevelLightEngineMixin extends LevelLightEngine imp
         });
     }
 
+    /**
+     * @reason When the light update ran out of budget, queue another update behind whatever else is waiting
+     * on the light executor instead of waiting for the next tick to schedule one. This runs before the scheduled
+     * flag is cleared, so tryScheduleUpdate has to be deferred through the mailbox.
+     * @author Spottedleaf
+     */
+    @Inject(
+            method = "runUpdate",
+            at = @At("RETURN")
+    )
+    private void resumeBudgetedUpdate(final CallbackInfo ci) {
+        if ((StarlightConfig.PROPAGATION_BUDGET_NANOS > 0L || StarlightConfig.PROPAGATION_BUDGET_TASKS > 0)
+                && this.getLightEngine().hasUpdates()) {
+            this.taskMailbox.tell(this::tryScheduleUpdate);
+        }
+    }
+
     /**
      * @reason Redirect scheduling call away from the vanilla light engine, as well as enforce
      * that chunk neighbours are loaded before the processing can occur
@@ -127,11 +153,14 @@ public abstract class ThreadedLevelLightEngineMixin extends LevelLightEngine imp
     }
 
     /**
-     * @reason Avoid messing with the vanilla light engine state
+     * @reason Avoid messing with the vanilla light engine state. ChunkMap calls this when a chunk is unloaded,
+     * so use it to drop the unloaded chunk from the light read caches
      * @author Spottedleaf
      */
     @Overwrite
-    public void updateChunkStatus(final ChunkPos pos) {}
+    public void updateChunkStatus(final ChunkPos pos) {
+        this.getLightEngine().invalidateReadChunkCaches(pos);
+    }
 
     /**
      * @reason Redirect to schedule for our own logic, as well as ensure 1 radius neighbours
@@ -211,7 +240,9 @@ public abstract class ThreadedLevelLightEngineMixin extends LevelLightEngine imp
                 // can't really force the chunk to be edged checked, as we need neighbouring chunks - but we don't have
                 // them, so if it's not loaded then i guess we can't do edge checks. later loads of the chunk should
                 // catch what we miss here.
-                this.getLightEngine().checkChunkEdges(chunkPos.x, chunkPos.z);
+                if (!this.getLightEngine().canSkipEdgeChecks(chunk)) {
+                    this.getLightEngine().checkChunkEdges(chunkPos.x, chunkPos.z);
+                }
             }
 
             this.chunkMap.releaseLightTicket(chunkPos);
@@ -0,0 +1,29 @@
+package ca.spottedleaf.starlight.mixin.common.world;
+
+import ca.spottedleaf.starlight.common.light.LightExecutor;
+import net.minecraft.server.level.ChunkMap;
+import net.minecraft.util.thread.ProcessorMailbox;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Redirect;
+import java.util.concurrent.Executor;
+
+@Mixin(ChunkMap.class)
+public abstract class ChunkMapMixin {
+
+    /**
+     * @reason Run the light mailbox on the light executor, if it is enabled
+     * @author Spottedleaf
+     */
+    @Redirect(
+            method = "<init>",
+            at = @At(
+                    value = "INVOKE",
+                    target = "Lnet/minecraft/util/thread/ProcessorMailbox;create(Ljava/util/concurrent/Executor;Ljava/lang/String;)Lnet/minecraft/util/thread/ProcessorMailbox;"
+            )
+    )
+    private ProcessorMailbox<Runnable> createLightMailbox(final Executor executor, final String name) {
+        final LightExecutor lightExecutor = "light".equals(name) ? LightExecutor.getInstance() : null;
+        return ProcessorMailbox.create(lightExecutor == null ? executor : lightExecutor, name);
+    }
+}
@@ -1,5 +1,6 @@
 package ca.spottedleaf.starlight.mixin.common.world;
 
+import ca.spottedleaf.starlight.common.config.StarlightConfig;
 import ca.spottedleaf.starlight.common.util.SaveUtil;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.server.level.ServerLevel;
@@ -38,6 +39,6 @@ public abstract class ChunkSerializerMixin {
     )
     private static void loadLightHook(final ServerLevel serverLevel, final PoiManager poiManager, final ChunkPos chunkPos,
                                       final CompoundTag compoundTag, final CallbackInfoReturnable<ProtoChunk> cir) {
-        SaveUtil.loadLightHook(serverLevel, chunkPos, compoundTag, cir.getReturnValue());
+        SaveUtil.loadLightHook(serverLevel, chunkPos, compoundTag, cir.getReturnValue(), StarlightConfig.TRANSFER_LOADED_LIGHT);
     }
 }
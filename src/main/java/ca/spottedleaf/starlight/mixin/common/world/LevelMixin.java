@@ -1,5 +1,6 @@
 package ca.spottedleaf.starlight.mixin.common.world;
 
+import ca.spottedleaf.starlight.common.light.StarLightInterface;
 import ca.spottedleaf.starlight.common.world.ExtendedWorld;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.LevelAccessor;
@@ -7,6 +8,9 @@ import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.ChunkStatus;
 import net.minecraft.world.level.chunk.LevelChunk;
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 @Mixin(Level.class)
 public abstract class LevelMixin implements LevelAccessor, AutoCloseable, ExtendedWorld {
@@ -20,4 +24,16 @@ public abstract class LevelMixin implements LevelAccessor, AutoCloseable, Extend
     public ChunkAccess getAnyChunkImmediately(final int chunkX, final int chunkZ) {
         return this.getChunkSource().getChunk(chunkX, chunkX, ChunkStatus.EMPTY, false);
     }
+
+    /**
+     * @reason Drop the chunks of this world from the light read caches of every thread
+     * @author Spottedleaf
+     */
+    @Inject(
+            method = "close",
+            at = @At("HEAD")
+    )
+    private void clearLightReadCaches(final CallbackInfo ci) {
+        StarLightInterface.clearReadChunkCaches();
+    }
 }
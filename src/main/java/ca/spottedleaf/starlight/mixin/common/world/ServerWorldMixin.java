@@ -1,5 +1,7 @@
 package ca.spottedleaf.starlight.mixin.common.world;
 
+import ca.spottedleaf.starlight.common.config.StarlightConfig;
+import ca.spottedleaf.starlight.common.light.StarLightLightingProvider;
 import ca.spottedleaf.starlight.common.util.CoordinateUtils;
 import ca.spottedleaf.starlight.common.world.ExtendedWorld;
 import com.mojang.datafixers.util.Either;
@@ -10,6 +12,7 @@ import net.minecraft.server.level.ChunkHolder;
 import net.minecraft.server.level.ChunkMap;
 import net.minecraft.server.level.ServerChunkCache;
 import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.util.profiling.ProfilerFiller;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.WorldGenLevel;
@@ -21,6 +24,11 @@ import net.minecraft.world.level.storage.WritableLevelData;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import java.util.List;
+import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 
 @Mixin(ServerLevel.class)
@@ -30,6 +38,9 @@ public abstract class ServerWorldMixin extends Level implements WorldGenLevel, E
     @Final
     private ServerChunkCache chunkSource;
 
+    @Shadow
+    public abstract List<ServerPlayer> players();
+
     protected ServerWorldMixin(WritableLevelData writableLevelData, ResourceKey<Level> resourceKey, RegistryAccess registryAccess, Holder<DimensionType> holder, Supplier<ProfilerFiller> supplier, boolean bl, boolean bl2, long l, int i) {
         super(writableLevelData, resourceKey, registryAccess, holder, supplier, bl, bl2, l, i);
     }
@@ -55,4 +66,38 @@ public abstract class ServerWorldMixin extends Level implements WorldGenLevel, E
 
         return holder == null ? null : holder.getLastAvailable();
     }
+
+    /**
+     * @reason Snapshot player positions for the light queue priority, the player list cannot be read off-main
+     * @author Spottedleaf
+     */
+    @Inject(
+            method = "tick",
+            at = @At("HEAD")
+    )
+    private void updateLightPriorityPositions(final BooleanSupplier shouldKeepTicking, final CallbackInfo ci) {
+        if (!StarlightConfig.PRIORITY_SCHEDULING) {
+            return;
+        }
+
+        final List<ServerPlayer> players = this.players();
+        final long[] chunkKeys = new long[players.size()];
+        for (int i = 0, len = chunkKeys.length; i < len; ++i) {
+            chunkKeys[i] = CoordinateUtils.getChunkKey(players.get(i));
+        }
+
+        ((StarLightLightingProvider)this.chunkSource.getLightEngine()).getLightEngine().updatePlayerChunkPositions(chunkKeys);
+    }
+
+    /**
+     * @reason Complete the light metrics interval, if it is over
+     * @author Spottedleaf
+     */
+    @Inject(
+            method = "tick",
+            at = @At("HEAD")
+    )
+    private void tickLightMetrics(final BooleanSupplier shouldKeepTicking, final CallbackInfo ci) {
+        ((StarLightLightingProvider)this.chunkSource.getLightEngine()).getLightEngine().getMetrics().tick();
+    }
 }
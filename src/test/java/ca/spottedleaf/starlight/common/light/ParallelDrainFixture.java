@@ -0,0 +1,307 @@
+package ca.spottedleaf.starlight.common.light;
+
+import ca.spottedleaf.starlight.common.chunk.ExtendedChunk;
+import ca.spottedleaf.starlight.common.util.CoordinateUtils;
+import ca.spottedleaf.starlight.common.util.WorldUtil;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.Holder;
+import net.minecraft.core.IdMapper;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.level.BlockGetter;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.EmptyBlockGetter;
+import net.minecraft.world.level.LevelHeightAccessor;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.ChunkStatus;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.LightChunk;
+import net.minecraft.world.level.chunk.LightChunkGetter;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.chunk.ProtoChunk;
+import net.minecraft.world.level.chunk.UpgradeData;
+import net.minecraft.world.ticks.ProtoChunkTicks;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+// Loaded through Knot, see KnotFixtures
+// Applies the same block changes to two copies of a world, one drained serially and one drained either in parallel the
+// way StarLightInterface#propagateChangesParallel groups them, or serially with the propagation paused as often as
+// possible, and compares the resulting light.
+public final class ParallelDrainFixture implements LightChunkGetter {
+
+    private static final LevelHeightAccessor HEIGHT = new LevelHeightAccessor() {
+        @Override
+        public int getHeight() {
+            return 128;
+        }
+
+        @Override
+        public int getMinBuildHeight() {
+            return 0;
+        }
+    };
+
+    // large enough for regions of every parity
+    private static final int RADIUS = 12;
+    // changes are kept this far inside the generated chunks, so that every change has its 2 radius available
+    private static final int CHANGE_RADIUS = RADIUS - 2;
+    private static final int SURFACE_Y = 48;
+
+    private static final IdMapper<Holder<Biome>> BIOMES = new IdMapper<>();
+    // biomes are never read by the light engine
+    private static final Holder<Biome> BIOME = Holder.direct(null);
+    static {
+        BIOMES.add(BIOME);
+    }
+
+    private static boolean bootstrapped;
+
+    private static synchronized void bootstrap() {
+        if (bootstrapped) {
+            return;
+        }
+        bootstrapped = true;
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+
+    private final Long2ObjectOpenHashMap<ChunkAccess> chunks = new Long2ObjectOpenHashMap<>();
+    private final Set<ChunkPos> allChunks = new LinkedHashSet<>();
+
+    private ParallelDrainFixture(final long seed) {
+        for (int chunkZ = -RADIUS; chunkZ <= RADIUS; ++chunkZ) {
+            for (int chunkX = -RADIUS; chunkX <= RADIUS; ++chunkX) {
+                this.chunks.put(CoordinateUtils.getChunkKey(chunkX, chunkZ), createChunk(chunkX, chunkZ));
+                this.allChunks.add(new ChunkPos(chunkX, chunkZ));
+            }
+        }
+
+        final int min = -RADIUS * 16;
+        final int max = RADIUS * 16 + 15;
+        final Random random = new Random(seed);
+        for (int z = min; z <= max; ++z) {
+            for (int x = min; x <= max; ++x) {
+                final int height = SURFACE_Y + random.nextInt(4);
+                for (int y = 0; y <= height; ++y) {
+                    // sparse holes in the ground so that sky light reaches under it
+                    if (y < 8 || y == height || random.nextInt(16) != 0) {
+                        this.setBlockState(x, y, z, Blocks.STONE.defaultBlockState());
+                    }
+                }
+                if (random.nextInt(32) == 0) {
+                    this.setBlockState(x, height + 1, z, Blocks.TORCH.defaultBlockState());
+                }
+            }
+        }
+    }
+
+    @Override
+    public LightChunk getChunkForLighting(final int chunkX, final int chunkZ) {
+        return this.chunks.get(CoordinateUtils.getChunkKey(chunkX, chunkZ));
+    }
+
+    @Override
+    public BlockGetter getLevel() {
+        return EmptyBlockGetter.INSTANCE;
+    }
+
+    private void setBlockState(final int blockX, final int blockY, final int blockZ, final BlockState state) {
+        final ChunkAccess chunk = this.chunks.get(CoordinateUtils.getChunkKey(blockX >> 4, blockZ >> 4));
+        chunk.getSections()[(blockY >> 4) - WorldUtil.getMinSection(HEIGHT)].setBlockState(blockX & 15, blockY & 15, blockZ & 15, state, false);
+    }
+
+    private static ProtoChunk createChunk(final int chunkX, final int chunkZ) {
+        final LevelChunkSection[] sections = new LevelChunkSection[WorldUtil.getTotalSections(HEIGHT)];
+        for (int i = 0; i < sections.length; ++i) {
+            sections[i] = new LevelChunkSection(
+                    new PalettedContainer<>(Block.BLOCK_STATE_REGISTRY, Blocks.AIR.defaultBlockState(), PalettedContainer.Strategy.SECTION_STATES),
+                    new PalettedContainer<>(BIOMES, BIOME, PalettedContainer.Strategy.SECTION_BIOMES)
+            );
+        }
+
+        final ProtoChunk ret = new ProtoChunk(
+                new ChunkPos(chunkX, chunkZ), UpgradeData.EMPTY, sections, new ProtoChunkTicks<>(), new ProtoChunkTicks<>(),
+                HEIGHT, null, null
+        );
+        ret.setStatus(ChunkStatus.LIGHT);
+        ret.setLightCorrect(true);
+
+        return ret;
+    }
+
+    private void lightAll() {
+        new SkyStarLightEngine(HEIGHT, false).relightChunks(this, this.allChunks, null, null);
+        new BlockStarLightEngine(HEIGHT, false).relightChunks(this, this.allChunks, null, null);
+    }
+
+    private static void handleChunk(final ParallelDrainFixture world, final SkyStarLightEngine skyEngine,
+                                    final BlockStarLightEngine blockEngine, final long chunkKey, final LongOpenHashSet positions) {
+        final int chunkX = CoordinateUtils.getChunkX(chunkKey);
+        final int chunkZ = CoordinateUtils.getChunkZ(chunkKey);
+        skyEngine.blocksChangedInChunk(world, chunkX, chunkZ, positions, null);
+        blockEngine.blocksChangedInChunk(world, chunkX, chunkZ, positions, null);
+    }
+
+    // returns the number of times the propagation was paused
+    private static int handleChunkPaused(final ParallelDrainFixture world, final SkyStarLightEngine skyEngine,
+                                         final BlockStarLightEngine blockEngine, final long chunkKey, final LongOpenHashSet positions) {
+        final int chunkX = CoordinateUtils.getChunkX(chunkKey);
+        final int chunkZ = CoordinateUtils.getChunkZ(chunkKey);
+        int pauses = 0;
+
+        // a deadline in the past pauses at every check
+        skyEngine.setPropagationDeadline(System.nanoTime());
+        if (!skyEngine.blocksChangedInChunk(world, chunkX, chunkZ, positions, null)) {
+            do {
+                ++pauses;
+            } while (!skyEngine.resumePropagation(world));
+        }
+        blockEngine.setPropagationDeadline(System.nanoTime());
+        if (!blockEngine.blocksChangedInChunk(world, chunkX, chunkZ, positions, null)) {
+            do {
+                ++pauses;
+            } while (!blockEngine.resumePropagation(world));
+        }
+
+        return pauses;
+    }
+
+    // returns null if the light of both worlds is the same, or a description of the first difference
+    private static String compare(final ParallelDrainFixture serial, final ParallelDrainFixture parallel) {
+        for (final ChunkPos pos : serial.allChunks) {
+            final long key = CoordinateUtils.getChunkKey(pos);
+            final ExtendedChunk serialChunk = (ExtendedChunk)serial.chunks.get(key);
+            final ExtendedChunk parallelChunk = (ExtendedChunk)parallel.chunks.get(key);
+
+            final String sky = compare(serialChunk.getSkyNibbles(), parallelChunk.getSkyNibbles());
+            if (sky != null) {
+                return "sky light of chunk " + pos + " differs: " + sky;
+            }
+            final String block = compare(serialChunk.getBlockNibbles(), parallelChunk.getBlockNibbles());
+            if (block != null) {
+                return "block light of chunk " + pos + " differs: " + block;
+            }
+        }
+        return null;
+    }
+
+    private static String compare(final SWMRNibbleArray[] serial, final SWMRNibbleArray[] parallel) {
+        for (int i = 0; i < serial.length; ++i) {
+            final SWMRNibbleArray serialNibble = serial[i];
+            final SWMRNibbleArray parallelNibble = parallel[i];
+            if (serialNibble.isNullNibbleVisible() != parallelNibble.isNullNibbleVisible()) {
+                return "section index " + i + " is null in only one of them";
+            }
+            for (int index = 0; index < 16 * 16 * 16; ++index) {
+                if (serialNibble.getVisible(index) != parallelNibble.getVisible(index)) {
+                    return "section index " + i + ", block index " + index + ": serial " + serialNibble.getVisible(index)
+                            + ", parallel " + parallelNibble.getVisible(index);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void setBlockState(final ParallelDrainFixture serial, final ParallelDrainFixture other,
+                                      final Long2ObjectLinkedOpenHashMap<LongOpenHashSet> changes,
+                                      final int x, final int y, final int z, final BlockState state) {
+        serial.setBlockState(x, y, z, state);
+        other.setBlockState(x, y, z, state);
+        changes.computeIfAbsent(CoordinateUtils.getChunkKey(x >> 4, z >> 4), (final long keyInMap) -> {
+            return new LongOpenHashSet();
+        }).add(CoordinateUtils.getBlockKey(x, y, z));
+    }
+
+    // drain is either "parallel" or "paused", and decides how the other world is drained
+    public static String run(final Long seed, final String drain) {
+        bootstrap();
+
+        final ParallelDrainFixture serial = new ParallelDrainFixture(seed.longValue());
+        final ParallelDrainFixture other = new ParallelDrainFixture(seed.longValue());
+        serial.lightAll();
+        other.lightAll();
+
+        // changes grouped by chunk, in the order the chunks were first changed, same as the light queue
+        final Long2ObjectLinkedOpenHashMap<LongOpenHashSet> changes = new Long2ObjectLinkedOpenHashMap<>();
+        final Random random = new Random(seed.longValue() ^ 0x5DEECE66DL);
+        final BlockState[] states = new BlockState[] {
+                Blocks.AIR.defaultBlockState(), Blocks.STONE.defaultBlockState(), Blocks.GLOWSTONE.defaultBlockState(),
+                Blocks.TORCH.defaultBlockState(), Blocks.GLASS.defaultBlockState()
+        };
+        for (int i = 0; i < 2000; ++i) {
+            final int x = random.nextInt(CHANGE_RADIUS * 2 * 16) - CHANGE_RADIUS * 16;
+            final int z = random.nextInt(CHANGE_RADIUS * 2 * 16) - CHANGE_RADIUS * 16;
+            final int y = 1 + random.nextInt(HEIGHT.getHeight() - 2);
+            final BlockState state = states[random.nextInt(states.length)];
+
+            setBlockState(serial, other, changes, x, y, z, state);
+        }
+        // a few pits dug through the whole surface of a chunk, so that single chunk tasks have large propagations
+        for (int i = 0; i < 8; ++i) {
+            final int chunkX = random.nextInt(CHANGE_RADIUS * 2) - CHANGE_RADIUS;
+            final int chunkZ = random.nextInt(CHANGE_RADIUS * 2) - CHANGE_RADIUS;
+            for (int y = SURFACE_Y - 16; y <= SURFACE_Y + 3; ++y) {
+                for (int z = chunkZ << 4; z < (chunkZ << 4) + 16; ++z) {
+                    for (int x = chunkX << 4; x < (chunkX << 4) + 16; ++x) {
+                        setBlockState(serial, other, changes, x, y, z, Blocks.AIR.defaultBlockState());
+                    }
+                }
+            }
+        }
+
+        final SkyStarLightEngine skyEngine = new SkyStarLightEngine(HEIGHT, false);
+        final BlockStarLightEngine blockEngine = new BlockStarLightEngine(HEIGHT, false);
+        for (final Long2ObjectMap.Entry<LongOpenHashSet> entry : changes.long2ObjectEntrySet()) {
+            handleChunk(serial, skyEngine, blockEngine, entry.getLongKey(), entry.getValue());
+        }
+
+        if (drain.equals("paused")) {
+            final SkyStarLightEngine pausedSkyEngine = new SkyStarLightEngine(HEIGHT, false);
+            final BlockStarLightEngine pausedBlockEngine = new BlockStarLightEngine(HEIGHT, false);
+            int pauses = 0;
+            for (final Long2ObjectMap.Entry<LongOpenHashSet> entry : changes.long2ObjectEntrySet()) {
+                pauses += handleChunkPaused(other, pausedSkyEngine, pausedBlockEngine, entry.getLongKey(), entry.getValue());
+            }
+            if (pauses == 0) {
+                return "propagation was never paused";
+            }
+            return compare(serial, other);
+        }
+
+        final Long2ObjectLinkedOpenHashMap<List<Long2ObjectMap.Entry<LongOpenHashSet>>> byRegion = new Long2ObjectLinkedOpenHashMap<>();
+        for (final Long2ObjectMap.Entry<LongOpenHashSet> entry : changes.long2ObjectEntrySet()) {
+            final int regionX = CoordinateUtils.getChunkX(entry.getLongKey()) >> StarLightInterface.PARALLEL_REGION_SHIFT;
+            final int regionZ = CoordinateUtils.getChunkZ(entry.getLongKey()) >> StarLightInterface.PARALLEL_REGION_SHIFT;
+            byRegion.computeIfAbsent(CoordinateUtils.getChunkKey(regionX, regionZ), (final long keyInMap) -> {
+                return new ArrayList<>();
+            }).add(entry);
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            StarLightInterface.runInParityPhases(pool, byRegion, (final List<Long2ObjectMap.Entry<LongOpenHashSet>> regionChanges) -> {
+                final SkyStarLightEngine regionSkyEngine = new SkyStarLightEngine(HEIGHT, false);
+                final BlockStarLightEngine regionBlockEngine = new BlockStarLightEngine(HEIGHT, false);
+                for (final Long2ObjectMap.Entry<LongOpenHashSet> entry : regionChanges) {
+                    handleChunk(other, regionSkyEngine, regionBlockEngine, entry.getLongKey(), entry.getValue());
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+
+        return compare(serial, other);
+    }
+}
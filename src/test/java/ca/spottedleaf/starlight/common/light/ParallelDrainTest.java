@@ -0,0 +1,24 @@
+package ca.spottedleaf.starlight.common.light;
+
+import ca.spottedleaf.starlight.knot.KnotFixtures;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ParallelDrainTest {
+
+    @Test
+    public void parallelDrainMatchesSerialDrain() {
+        for (final long seed : new long[] { 1L, 2L, 3L }) {
+            final Object difference = KnotFixtures.invoke("ca.spottedleaf.starlight.common.light.ParallelDrainFixture", "run", Long.valueOf(seed), "parallel");
+            assertNull(difference, "seed " + seed);
+        }
+    }
+
+    @Test
+    public void pausedDrainMatchesSerialDrain() {
+        for (final long seed : new long[] { 1L, 2L, 3L }) {
+            final Object difference = KnotFixtures.invoke("ca.spottedleaf.starlight.common.light.ParallelDrainFixture", "run", Long.valueOf(seed), "paused");
+            assertNull(difference, "seed " + seed);
+        }
+    }
+}